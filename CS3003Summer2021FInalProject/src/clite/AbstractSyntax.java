@@ -4,6 +4,7 @@
 package clite;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 class Program {
     // Program = Declarations globals ; Block functions
@@ -189,10 +190,45 @@ class Functions extends ArrayList<Function> {
 	// Functions = Function*
 	// (a list of functions f1, f2, ..., fn)
 
+	// the first function under each name, as of the list's modCount
+	// being indexed.  add keeps it current; any other change to the
+	// list moves modCount on, or in set's case marks it stale, and the
+	// next get(String) builds it again.
+	private final HashMap<String, Function> index = new HashMap<String, Function>();
+	private int indexed = 0;
+	private boolean stale = false;
+
+	public boolean add(Function f) {
+		boolean current = !stale && indexed == modCount;
+		super.add(f);
+		if (current) {
+			index.putIfAbsent(f.id, f);
+			indexed = modCount;
+		}
+		return true;
+	}
+
+	public Function set(int i, Function f) {
+		stale = true; // set leaves modCount as it was
+		return super.set(i, f);
+	}
+
+	// a view that cannot be written, since its set would go around ours
+	public List<Function> subList(int from, int to) {
+		return Collections.unmodifiableList(super.subList(from, to));
+	}
+
 	public Function get(String name) {
-		for (Function fi : this) 
-			if (fi.id.equals(name)) 
-				return fi;
+		if (stale || indexed != modCount) {
+			index.clear();
+			for (Function f : this)
+				index.putIfAbsent(f.id, f);
+			indexed = modCount;
+			stale = false;
+		}
+		Function f = index.get(name);
+		if (f != null)
+			return f;
 		throw new IllegalArgumentException("no func '" + name + "' has been defined");
 	}
 
@@ -206,9 +242,24 @@ class Function {
 	Declarations params, locals;
 	Block body;
 
+	private Signature sig;
+	private Layout layout;
+
 	Function (Type t, String id, Declarations params, Declarations locals, Block body) {
 		this.t = t; this.id = id; this.locals = locals; this.params = params; this.body = body;
 	}
+
+	Signature signature() {
+		if (sig == null)
+			sig = Signature.of(t, params);
+		return sig;
+	}
+
+	Layout layout() {
+		if (layout == null)
+			layout = new Layout(params, locals);
+		return layout;
+	}
 }
 
 class Declarations extends ArrayList<Declaration> {
@@ -378,6 +429,7 @@ class Loop extends Statement {
 class CallStatement extends Statement {
 	String name;
 	Expressions args;
+	Function target; // set by Linker
 
 	CallStatement (String name, Expressions args) {
 		this.name = name; this.args = args;
@@ -419,11 +471,22 @@ abstract class VariableRef extends Expression {
 class Variable extends VariableRef {
     // Variable = String id
 
+    // One shared Variable per name, for the Parser and TypeTransformer
+    private static final ConcurrentHashMap<String, Variable> interned =
+        new ConcurrentHashMap<String, Variable>();
+
     Variable (String s) { super.id = s; }
 
+    static Variable of (String s) {
+        Variable v = interned.get(s);
+        return v != null ? v : interned.computeIfAbsent(s, Variable::new);
+    }
+
     public String toString( ) { return id; }
     
     public boolean equals (Object obj) {
+        if (obj == this)
+            return true;
     	try {
         	String s = ((Variable) obj).id;
         	return id.equals(s); // case-sensitive identifiers
@@ -436,6 +499,16 @@ class Variable extends VariableRef {
     public int hashCode ( ) { return id.hashCode( ); }
 }
 
+class ResolvedVariable extends Variable {
+    // a Variable with its place in a frame, as Resolver finds it
+    final int slot;
+    final boolean global; // in the globals' frame rather than the function's
+
+    ResolvedVariable (String s, int slot, boolean global) {
+        super(s); this.slot = slot; this.global = global;
+    }
+}
+
 class ArrayRef extends VariableRef {
     // ArrayRef = String id; Expression index
 	
@@ -465,6 +538,16 @@ class ArrayRef extends VariableRef {
     }
     // I think the reason the ArrayRefs are not being matched. Is because I have not implemented the function hashCode, for ArrayRef
 }
+
+class ResolvedArrayRef extends ArrayRef {
+    // an ArrayRef with its array's place in a frame, as Resolver finds it
+    final int slot;
+    final boolean global; // in the globals' frame rather than the function's
+
+    ResolvedArrayRef (String s, Expression e, int slot, boolean global) {
+        super(s, e); this.slot = slot; this.global = global;
+    }
+}
 	
 abstract class Value extends Expression {
     // Value = IntValue | BoolValue |
@@ -514,10 +597,22 @@ abstract class Value extends Expression {
 class IntValue extends Value {
     private int value = 0;
 
+    private static final int LOW = 128; // small runs from -LOW to 1023
+    private static final IntValue[] small = new IntValue[LOW + 1024];
+    static {
+        for (int i = 0; i < small.length; i++)
+            small[i] = new IntValue(i - LOW);
+    }
+
     IntValue ( ) { type = Type.INT; }
 
     IntValue (int v) { this( ); value = v; undef = false; }
 
+    // values never change, so small ones are shared
+    static IntValue of (int v) {
+        return v >= -LOW && v < small.length - LOW ? small[v + LOW] : new IntValue(v);
+    }
+
     int intValue ( ) {
         assert !undef : "reference to undefined int value";
         return value;
@@ -529,6 +624,8 @@ class IntValue extends Value {
     }
 
     public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
     	IntValue iv = (IntValue) obj;
 	return iv.value == this.value;
     }
@@ -542,6 +639,10 @@ class BoolValue extends Value {
 
     BoolValue (boolean v) { this( ); value = v; undef = false; }
 
+    static final BoolValue TRUE = new BoolValue(true), FALSE = new BoolValue(false);
+
+    static BoolValue of (boolean v) { return v ? TRUE : FALSE; }
+
     boolean boolValue ( ) {
         assert !undef : "reference to undefined bool value";
         return value;
@@ -566,6 +667,16 @@ class CharValue extends Value {
 
     CharValue (char v) { this( ); value = v; undef = false; }
 
+    private static final CharValue[] latin1 = new CharValue[256];
+    static {
+        for (int i = 0; i < latin1.length; i++)
+            latin1[i] = new CharValue((char) i);
+    }
+
+    static CharValue of (char v) {
+        return v < latin1.length ? latin1[v] : new CharValue(v);
+    }
+
     char charValue ( ) {
         assert !undef : "reference to undefined char value";
         return value;
@@ -620,6 +731,7 @@ class Binary extends Expression {
 // Binary = Operator op; Expression term1, term2
     Operator op;
     Expression term1, term2;
+    Type type; // filled in by StaticTypeCheck.typeOf
 
     Binary (Operator o, Expression l, Expression r) {
         op = o; term1 = l; term2 = r;
@@ -631,6 +743,7 @@ class Unary extends Expression {
     // Unary = Operator op; Expression term
     Operator op;
     Expression term;
+    Type type; // filled in by StaticTypeCheck.typeOf
 
     Unary (Operator o, Expression e) {
         op = o; term = e;
@@ -643,6 +756,7 @@ class CallExpression extends Expression {
 
 	String name;
 	Expressions args;
+	Function target; // set by Linker
 
 	CallExpression (String name, Expressions args) {
 		this.name = name; this.args = args;
@@ -660,198 +774,159 @@ class CallExpression extends Expression {
 	}
 }
 
-class Operator {
+enum Operator {
     // Operator = BooleanOp | RelationalOp | ArithmeticOp | UnaryOp
     // BooleanOp = && | ||
-    final static String AND = "&&";
-    final static String OR = "||";
+    AND("&&"), OR("||"),
     // RelationalOp = < | <= | == | != | >= | >
-    final static String LT = "<";
-    final static String LE = "<=";
-    final static String EQ = "==";
-    final static String NE = "!=";
-    final static String GT = ">";
-    final static String GE = ">=";
+    LT("<"), LE("<="), EQ("=="), NE("!="), GT(">"), GE(">="),
     // ArithmeticOp = + | - | * | /
-    final static String PLUS = "+";
-    final static String MINUS = "-";
-    final static String TIMES = "*";
-    final static String DIV = "/";
-    final static String POWER = "^";
+    PLUS("+"), MINUS("-"), TIMES("*"), DIV("/"), POWER("^"),
     // UnaryOp = !    
-    final static String NOT = "!";
-    final static String NEG = "-NEG"; //This has been changed from "-" to "-NEG" to avoid ambiguity with MINUS
+    NOT("!"),
+    NEG("-NEG"), //This has been changed from "-" to "-NEG" to avoid ambiguity with MINUS
     // CastOp = int | float | char | double
-    final static String INT = "int";
-    final static String FLOAT = "float";
-    final static String CHAR = "char";
-    final static String DOUBLE = "double";
+    INT("int"), FLOAT("float"), CHAR("char"), DOUBLE("double"),
     // Typed Operators
     // RelationalOp = < | <= | == | != | >= | >
-    final static String INT_LT = "INT<";
-    final static String INT_LE = "INT<=";
-    final static String INT_EQ = "INT==";
-    final static String INT_NE = "INT!=";
-    final static String INT_GT = "INT>";
-    final static String INT_GE = "INT>=";
+    INT_LT("INT<"), INT_LE("INT<="), INT_EQ("INT=="),
+    INT_NE("INT!="), INT_GT("INT>"), INT_GE("INT>="),
     // ArithmeticOp = + | - | * | / | ^
-    final static String INT_PLUS = "INT+";
-    final static String INT_MINUS = "INT-";
-    final static String INT_TIMES = "INT*";
-    final static String INT_DIV = "INT/";
-    final static String INT_POWER = "INT^";
+    INT_PLUS("INT+"), INT_MINUS("INT-"), INT_TIMES("INT*"),
+    INT_DIV("INT/"), INT_POWER("INT^"),
     // UnaryOp = !    
-    final static String INT_NEG = "INT-NEG";
- // RelationalOp = < | <= | == | != | >= | >
-    final static String DOUBLE_LT = "DOUBLE<";
-    final static String DOUBLE_LE = "DOUBLE<=";
-    final static String DOUBLE_EQ = "DOUBLE==";
-    final static String DOUBLE_NE = "DOUBLE!=";
-    final static String DOUBLE_GT = "DOUBLE>";
-    final static String DOUBLE_GE = "DOUBLE>=";
+    INT_NEG("INT-NEG"),
+    // RelationalOp = < | <= | == | != | >= | >
+    DOUBLE_LT("DOUBLE<"), DOUBLE_LE("DOUBLE<="), DOUBLE_EQ("DOUBLE=="),
+    DOUBLE_NE("DOUBLE!="), DOUBLE_GT("DOUBLE>"), DOUBLE_GE("DOUBLE>="),
     // ArithmeticOp = + | - | * | /
-    final static String DOUBLE_PLUS = "DOUBLE+";
-    final static String DOUBLE_MINUS = "DOUBLE-";
-    final static String DOUBLE_TIMES = "DOUBLE*";
-    final static String DOUBLE_DIV = "DOUBLE/";
+    DOUBLE_PLUS("DOUBLE+"), DOUBLE_MINUS("DOUBLE-"),
+    DOUBLE_TIMES("DOUBLE*"), DOUBLE_DIV("DOUBLE/"),
     // UnaryOp = !    
-    final static String DOUBLE_NEG = "DOUBLE-NEG";
+    DOUBLE_NEG("DOUBLE-NEG"),
     // RelationalOp = < | <= | == | != | >= | >
-    final static String FLOAT_LT = "FLOAT<";
-    final static String FLOAT_LE = "FLOAT<=";
-    final static String FLOAT_EQ = "FLOAT==";
-    final static String FLOAT_NE = "FLOAT!=";
-    final static String FLOAT_GT = "FLOAT>";
-    final static String FLOAT_GE = "FLOAT>=";
+    FLOAT_LT("FLOAT<"), FLOAT_LE("FLOAT<="), FLOAT_EQ("FLOAT=="),
+    FLOAT_NE("FLOAT!="), FLOAT_GT("FLOAT>"), FLOAT_GE("FLOAT>="),
     // ArithmeticOp = + | - | * | / | ^
-    final static String FLOAT_PLUS = "FLOAT+";
-    final static String FLOAT_MINUS = "FLOAT-";
-    final static String FLOAT_TIMES = "FLOAT*";
-    final static String FLOAT_DIV = "FLOAT/";
-    final static String FLOAT_POWER = "FLOAT^";
+    FLOAT_PLUS("FLOAT+"), FLOAT_MINUS("FLOAT-"), FLOAT_TIMES("FLOAT*"),
+    FLOAT_DIV("FLOAT/"), FLOAT_POWER("FLOAT^"),
     // UnaryOp = !    
-    final static String FLOAT_NEG = "FLOAT-NEG";
+    FLOAT_NEG("FLOAT-NEG"),
     // RelationalOp = < | <= | == | != | >= | >
-    final static String CHAR_LT = "CHAR<";
-    final static String CHAR_LE = "CHAR<=";
-    final static String CHAR_EQ = "CHAR==";
-    final static String CHAR_NE = "CHAR!=";
-    final static String CHAR_GT = "CHAR>";
-    final static String CHAR_GE = "CHAR>=";
+    CHAR_LT("CHAR<"), CHAR_LE("CHAR<="), CHAR_EQ("CHAR=="),
+    CHAR_NE("CHAR!="), CHAR_GT("CHAR>"), CHAR_GE("CHAR>="),
     // RelationalOp = < | <= | == | != | >= | >
-    final static String BOOL_LT = "BOOL<";
-    final static String BOOL_LE = "BOOL<=";
-    final static String BOOL_EQ = "BOOL==";
-    final static String BOOL_NE = "BOOL!=";
-    final static String BOOL_GT = "BOOL>";
-    final static String BOOL_GE = "BOOL>=";
+    BOOL_LT("BOOL<"), BOOL_LE("BOOL<="), BOOL_EQ("BOOL=="),
+    BOOL_NE("BOOL!="), BOOL_GT("BOOL>"), BOOL_GE("BOOL>="),
     // Type specific cast
-    final static String I2F = "I2F";
-    final static String F2I = "F2I";
-    final static String C2I = "C2I";
-    final static String I2C = "I2C";
-    final static String I2D = "I2D";
-    final static String D2I = "D2I";
-    final static String D2F = "D2F";
-    final static String F2D = "F2D";
+    I2F("I2F"), F2I("F2I"), C2I("C2I"), I2C("I2C"),
+    I2D("I2D"), D2I("D2I"), D2F("D2F"), F2D("F2D");
     
-    String val;
+    final String val;
     
     Operator (String s) { val = s; }
 
     public String toString( ) { return val; }
-    public boolean equals(Object obj) { return val.equals(obj); }
     
-    boolean BooleanOp ( ) { return val.equals(AND) || val.equals(OR); }
+    boolean BooleanOp ( ) { return this == AND || this == OR; }
     boolean RelationalOp ( ) {
-        return val.equals(LT) || val.equals(LE) || val.equals(EQ)
-            || val.equals(NE) || val.equals(GT) || val.equals(GE);
+        switch (this) {
+        case LT: case LE: case EQ: case NE: case GT: case GE:
+            return true;
+        default:
+            return false;
+        }
     }
     boolean ArithmeticOp ( ) {
-        return val.equals(PLUS) || val.equals(MINUS)
-            || val.equals(TIMES) || val.equals(DIV)
-            || val.equals(POWER) 
-            || val.equals(INT_PLUS) || val.equals(INT_MINUS)
-            || val.equals(INT_TIMES) || val.equals(INT_DIV)
-            || val.equals(INT_POWER)
-            || val.equals(FLOAT_PLUS) || val.equals(FLOAT_MINUS)
-            || val.equals(FLOAT_TIMES) || val.equals(FLOAT_DIV)
-            || val.equals(DOUBLE_PLUS) || val.equals(DOUBLE_MINUS)
-            || val.equals(DOUBLE_TIMES) || val.equals(DOUBLE_DIV);
-            || val.equals(FLOAT_POWER);
-    }
-    boolean NotOp ( ) { return val.equals(NOT) ; }
-    boolean NegateOp ( ) { return (val.equals(NEG) || val.equals(INT_NEG) || 
-				   val.equals(FLOAT_NEG)) || val.equals(DOUBLE_NEG); }
-    boolean intOp ( ) { return val.equals(INT); }
-    boolean floatOp ( ) { return val.equals(FLOAT); }
-    boolean charOp ( ) { return val.equals(CHAR); }
-    boolean doubleOp ( ) { return val.equals(DOUBLE); }
-
-    final static String intMap[ ] [ ] = {
-        {PLUS, INT_PLUS}, {MINUS, INT_MINUS},
-        {TIMES, INT_TIMES}, {DIV, INT_DIV},
-        {POWER, INT_POWER},
-        {EQ, INT_EQ}, {NE, INT_NE}, {LT, INT_LT},
-        {LE, INT_LE}, {GT, INT_GT}, {GE, INT_GE},
-        {NEG, INT_NEG}, {FLOAT, I2F}, {CHAR, I2C},
-        {DOUBLE, I2D}
-    };
-
-    final static String doubleMap[ ] [ ] = {
-        {PLUS, DOUBLE_PLUS}, {MINUS, DOUBLE_MINUS},
-        {TIMES, DOUBLE_TIMES}, {DIV, DOUBLE_DIV},
-        {EQ, DOUBLE_EQ}, {NE, DOUBLE_NE}, {LT, DOUBLE_LT},
-        {LE, DOUBLE_LE}, {GT, DOUBLE_GT}, {GE, DOUBLE_GE},
-        {NEG, DOUBLE_NEG}, {INT, D2I}, {FLOAT, D2F}
-    };
-
-    final static String floatMap[ ] [ ] = {
-        {PLUS, FLOAT_PLUS}, {MINUS, FLOAT_MINUS},
-        {TIMES, FLOAT_TIMES}, {DIV, FLOAT_DIV},
-        {POWER, FLOAT_POWER},
-        {EQ, FLOAT_EQ}, {NE, FLOAT_NE}, {LT, FLOAT_LT},
-        {LE, FLOAT_LE}, {GT, FLOAT_GT}, {GE, FLOAT_GE},
-        {NEG, FLOAT_NEG}, {INT, F2I}, {DOUBLE, F2D}
-    };
-
-    final static String charMap[ ] [ ] = {
-        {EQ, CHAR_EQ}, {NE, CHAR_NE}, {LT, CHAR_LT},
-        {LE, CHAR_LE}, {GT, CHAR_GT}, {GE, CHAR_GE},
-        {INT, C2I}
-    };
-
-    final static String boolMap[ ] [ ] = {
-        {EQ, BOOL_EQ}, {NE, BOOL_NE}, {LT, BOOL_LT},
-        {LE, BOOL_LE}, {GT, BOOL_GT}, {GE, BOOL_GE},
-	{OR, OR}, {AND, AND}, {NOT, NOT}
-    };
-
-    final static private Operator map (String[][] tmap, String op) {
-        for (int i = 0; i < tmap.length; i++)
-            if (tmap[i][0].equals(op))
-                return new Operator(tmap[i][1]);
-        assert false : "should never reach here";
-        return null;
-    }
-
-    final static public Operator intMap (String op) {
-        return map (intMap, op);
-    }
-
-    final static public Operator doubleMap (String op) {
-        return map (doubleMap, op);
-    }
-
-    final static public Operator floatMap (String op) {
-        return map (floatMap, op);
-    }
-
-    final static public Operator charMap (String op) {
-        return map (charMap, op);
+        switch (this) {
+        case PLUS: case MINUS: case TIMES: case DIV: case POWER:
+        case INT_PLUS: case INT_MINUS: case INT_TIMES: case INT_DIV: case INT_POWER:
+        case FLOAT_PLUS: case FLOAT_MINUS: case FLOAT_TIMES: case FLOAT_DIV: case FLOAT_POWER:
+        case DOUBLE_PLUS: case DOUBLE_MINUS: case DOUBLE_TIMES: case DOUBLE_DIV:
+            return true;
+        default:
+            return false;
+        }
     }
-
-    final static public Operator boolMap (String op) {
-        return map (boolMap, op);
+    boolean NotOp ( ) { return this == NOT; }
+    boolean NegateOp ( ) { return this == NEG || this == INT_NEG || 
+				   this == FLOAT_NEG || this == DOUBLE_NEG; }
+    boolean intOp ( ) { return this == INT; }
+    boolean floatOp ( ) { return this == FLOAT; }
+    boolean charOp ( ) { return this == CHAR; }
+    boolean doubleOp ( ) { return this == DOUBLE; }
+
+    // The typed maps, indexed by the ordinal of the untyped operator
+    private final static Operator intMap[ ] = table(
+        PLUS, INT_PLUS, MINUS, INT_MINUS,
+        TIMES, INT_TIMES, DIV, INT_DIV,
+        POWER, INT_POWER,
+        EQ, INT_EQ, NE, INT_NE, LT, INT_LT,
+        LE, INT_LE, GT, INT_GT, GE, INT_GE,
+        NEG, INT_NEG, FLOAT, I2F, CHAR, I2C,
+        DOUBLE, I2D
+    );
+
+    private final static Operator doubleMap[ ] = table(
+        PLUS, DOUBLE_PLUS, MINUS, DOUBLE_MINUS,
+        TIMES, DOUBLE_TIMES, DIV, DOUBLE_DIV,
+        EQ, DOUBLE_EQ, NE, DOUBLE_NE, LT, DOUBLE_LT,
+        LE, DOUBLE_LE, GT, DOUBLE_GT, GE, DOUBLE_GE,
+        NEG, DOUBLE_NEG, INT, D2I, FLOAT, D2F
+    );
+
+    private final static Operator floatMap[ ] = table(
+        PLUS, FLOAT_PLUS, MINUS, FLOAT_MINUS,
+        TIMES, FLOAT_TIMES, DIV, FLOAT_DIV,
+        POWER, FLOAT_POWER,
+        EQ, FLOAT_EQ, NE, FLOAT_NE, LT, FLOAT_LT,
+        LE, FLOAT_LE, GT, FLOAT_GT, GE, FLOAT_GE,
+        NEG, FLOAT_NEG, INT, F2I, DOUBLE, F2D
+    );
+
+    private final static Operator charMap[ ] = table(
+        EQ, CHAR_EQ, NE, CHAR_NE, LT, CHAR_LT,
+        LE, CHAR_LE, GT, CHAR_GT, GE, CHAR_GE,
+        INT, C2I
+    );
+
+    private final static Operator boolMap[ ] = table(
+        EQ, BOOL_EQ, NE, BOOL_NE, LT, BOOL_LT,
+        LE, BOOL_LE, GT, BOOL_GT, GE, BOOL_GE,
+	OR, OR, AND, AND, NOT, NOT
+    );
+
+    // pairs holds each untyped operator followed by its typed one
+    final static private Operator[] table (Operator... pairs) {
+        Operator[] tmap = new Operator[values().length];
+        for (int i = 0; i < pairs.length; i += 2)
+            tmap[pairs[i].ordinal()] = pairs[i + 1];
+        return tmap;
+    }
+
+    final private Operator map (Operator[] tmap) {
+        Operator op = tmap[ordinal()];
+        assert op != null : "should never reach here";
+        return op;
+    }
+
+    final public Operator intMap ( ) {
+        return map (intMap);
+    }
+
+    final public Operator doubleMap ( ) {
+        return map (doubleMap);
+    }
+
+    final public Operator floatMap ( ) {
+        return map (floatMap);
+    }
+
+    final public Operator charMap ( ) {
+        return map (charMap);
+    }
+
+    final public Operator boolMap ( ) {
+        return map (boolMap);
     }    
 }
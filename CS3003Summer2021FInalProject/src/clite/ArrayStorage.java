@@ -0,0 +1,95 @@
+// The elements of one array in a stack frame
+package clite;
+
+
+import java.util.Arrays;
+
+/* An array declared in a frame keeps its elements here, in a single
+   primitive array of its type, rather than as one keyed FrameState
+   entry per element.  Elements are only made as far as the highest one
+   stored so far, the primitive array doubling as that grows, so
+   declaring a large array costs nothing until it is used, and then
+   only as much as is used.  Until an element is stored it is undef. */
+
+final class ArrayStorage {
+
+    final String id;
+    final Type t;
+    final int size;
+
+    private int[] ints;       // for int arrays
+    private float[] floats;   // for float arrays
+    private double[] doubles; // for double arrays
+    private char[] chars;     // for char arrays
+    private boolean[] bools;  // for bool arrays
+    private boolean[] defined = NONE; // which have been stored
+
+    private static final boolean[] NONE = new boolean[0];
+
+    ArrayStorage (ArrayDecl ad) {
+	id = ad.v.id;
+	t = ad.t;
+	size = ad.size.isUndef() ? 0 : ad.size.intValue(); // a parameter's has none
+    }
+
+    // i, once it is known to be an index of this array
+    private int index (int i) {
+	StaticTypeCheck.check( i >= 0 && i < size,
+		"array index out of bounds: " + id + "[" + i + "]");
+	return i;
+    }
+
+    // i, once its element is known to have been stored
+    private int stored (int i) {
+	index(i);
+	StaticTypeCheck.check( i < defined.length && defined[i],
+		"reference to undef value");
+	return i;
+    }
+
+    Value get (int i) {
+	index(i);
+	if (i >= defined.length || !defined[i])
+		return Value.mkValue(t);
+	if (t == Type.INT) return IntValue.of(ints[i]);
+	if (t == Type.FLOAT) return new FloatValue(floats[i]);
+	if (t == Type.DOUBLE) return new DoubleValue(doubles[i]);
+	if (t == Type.CHAR) return CharValue.of(chars[i]);
+	return BoolValue.of(bools[i]);
+    }
+
+    int intAt (int i) { return ints[stored(i)]; }
+
+    float floatAt (int i) { return floats[stored(i)]; }
+
+    double doubleAt (int i) { return doubles[stored(i)]; }
+
+    char charAt (int i) { return chars[stored(i)]; }
+
+    boolean boolAt (int i) { return bools[stored(i)]; }
+
+    void set (int i, Value v) {
+	index(i);
+	if (i >= defined.length)
+		grow(i + 1);
+	defined[i] = !v.isUndef();
+	if (v.isUndef())
+		return;
+	if (t == Type.INT) ints[i] = v.intValue();
+	else if (t == Type.FLOAT) floats[i] = v.floatValue();
+	else if (t == Type.DOUBLE) doubles[i] = v.doubleValue();
+	else if (t == Type.CHAR) chars[i] = v.charValue();
+	else bools[i] = v.boolValue();
+    }
+
+    // makes room for at least n elements
+    private void grow (int n) {
+	n = Math.min(size, Math.max(n, Math.max(16, 2 * defined.length)));
+	defined = Arrays.copyOf(defined, n);
+	if (t == Type.INT) ints = ints == null ? new int[n] : Arrays.copyOf(ints, n);
+	else if (t == Type.FLOAT) floats = floats == null ? new float[n] : Arrays.copyOf(floats, n);
+	else if (t == Type.DOUBLE) doubles = doubles == null ? new double[n] : Arrays.copyOf(doubles, n);
+	else if (t == Type.CHAR) chars = chars == null ? new char[n] : Arrays.copyOf(chars, n);
+	else bools = bools == null ? new boolean[n] : Arrays.copyOf(bools, n);
+    }
+}
@@ -0,0 +1,147 @@
+// On-disk cache of typed programs
+package clite;
+
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.jar.*;
+
+/* Keeps the Program TypeTransformer.T makes of a source file, so that
+   running an unchanged file again skips lexing, parsing, type checking
+   and transforming.  Entries are FlatAst.toBytes() images, one file per
+   entry in the directory named by the clite.cache property (default
+   .clite-cache), named by a SHA-256 hash of the source text together
+   with the compiler version.
+
+   The compiler version is a hash of this format and of every class
+   file in the clite package, read from wherever this class was loaded,
+   directory or jar, so a rebuild that changes any of them, the syntax
+   classes included, misses every old entry instead of loading a tree
+   the new compiler would not have made.  If the class files cannot be
+   found, nothing is ever reused.  A file that cannot be read back is
+   treated as a miss. */
+
+public class AstCache {
+
+    static final int FORMAT = 2; // bump when FlatAst.toBytes() changes
+    private static final byte[] version = version();
+
+    private static byte[] version( ) {
+        MessageDigest md = sha256();
+        md.update((byte) FORMAT);
+        try {
+            Path where = Paths.get(AstCache.class.getProtectionDomain()
+                                   .getCodeSource().getLocation().toURI());
+            TreeMap<String, byte[]> classes = new TreeMap<String, byte[]>();
+            if (Files.isDirectory(where)) {
+                try (DirectoryStream<Path> dir = Files.newDirectoryStream(where.resolve("clite"), "*.class")) {
+                    for (Path f : dir)
+                        classes.put(f.getFileName().toString(), Files.readAllBytes(f));
+                }
+            } else {
+                try (JarFile jar = new JarFile(where.toFile())) {
+                    for (JarEntry e : Collections.list(jar.entries()))
+                        if (e.getName().startsWith("clite/") && e.getName().endsWith(".class"))
+                            try (InputStream in = jar.getInputStream(e)) {
+                                classes.put(e.getName().substring(6), in.readAllBytes());
+                            }
+                }
+            }
+            if (classes.isEmpty())
+                throw new IOException("no class files at " + where);
+            for (Map.Entry<String, byte[]> c : classes.entrySet()) {
+                md.update(c.getKey().getBytes(StandardCharsets.UTF_8));
+                md.update(c.getValue());
+            }
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            // a version no entry was ever stored under
+            md.update(Long.toString(System.nanoTime()).getBytes(StandardCharsets.UTF_8));
+            md.update(e.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return md.digest();
+    }
+
+    private static MessageDigest sha256( ) {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("should never reach here");
+        }
+    }
+
+    /* the name of the entry for source */
+    static String key(byte[] source) {
+        MessageDigest md = sha256();
+        md.update(version);
+        StringBuilder sb = new StringBuilder();
+        for (byte x : md.digest(source))
+            sb.append(String.format("%02x", x));
+        return sb.toString();
+    }
+
+    /* returns the typed Program for fileName, from the cache when the
+       same source was compiled before by the same compiler; otherwise
+       from the front end, storing the result */
+    public static Program typed(String fileName) {
+        byte[] source = null;
+        try {
+            source = Files.readAllBytes(Paths.get(fileName));
+        } catch (NoSuchFileException e) {
+            System.out.println("File not found: " + fileName);
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(1);
+        }
+        Path entry = Paths.get(System.getProperty("clite.cache", ".clite-cache"),
+                               key(source) + ".ast");
+        Program p = load(entry);
+        if (p == null) {
+            p = frontEnd(fileName);
+            store(entry, p);
+        }
+        return p;
+    }
+
+    /* lexes, parses, checks and transforms fileName; type errors exit */
+    static Program frontEnd(String fileName) {
+        return CheckingTransformer.T(new Parser(new Lexer(fileName)).program());
+    }
+
+    /* the Program in entry, or null if there is none or it is unreadable */
+    static Program load(Path entry) {
+        try {
+            return new FlatAst(ByteBuffer.wrap(Files.readAllBytes(entry))).toProgram();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /* writes p to entry; the cache is only an aid, so failures are ignored */
+    static void store(Path entry, Program p) {
+        try {
+            Files.createDirectories(entry.toAbsolutePath().getParent());
+            Path tmp = Files.createTempFile(entry.toAbsolutePath().getParent(), "ast", ".tmp");
+            try {
+                ByteBuffer buf = new FlatAst(p).toBytes();
+                Files.write(tmp, buf.array());
+                Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+    }
+
+    public static void main(String args[]) {
+        // AstCache file: fills the cache for file, then shows what it holds
+        typed(args[0]).display();
+    }
+}
@@ -0,0 +1,507 @@
+// Timing driver for the Clite front end.
+package clite;
+
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.concurrent.ForkJoinPool;
+
+public class Benchmark {
+
+    private static final int RUNS = 5; // best of RUNS is reported
+
+    /* writes a synthetic Clite program shaped like our machine-generated
+       translation units: one global and one small function per unit,
+       and a main that calls a few of them */
+    static void generate(String fileName, int units) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
+        for (int i = 0; i < units; i++)
+            out.println("int g" + i + ";");
+        for (int i = 0; i < units; i++) {
+            out.println("int f" + i + "(int a, int b) {");
+            out.println("  int x, y;");
+            out.println("  float z;");
+            out.println("  x = a + b * 3 - g" + i + ";");
+            out.println("  y = (x - a) / 2 + " + i + ";");
+            out.println("  z = 2.5 * x; // scaled copy");
+            out.println("  while (x > y) {");
+            out.println("    x = x - 1;");
+            out.println("  }");
+            out.println("  if (x == y && !(a < 0)) y = y + 1; else y = y - 1;");
+            out.println("  return x + y;");
+            out.println("}");
+        }
+        out.println("int main() {");
+        out.println("  int r;");
+        out.println("  r = 0;");
+        for (int i = 0; i < units && i < 100; i++)
+            out.println("  g" + i + " = " + i + ";");
+        for (int i = 0; i < units && i < 100; i++)
+            out.println("  r = r + f" + i + "(r, " + i + ");");
+        out.println("}");
+        out.close();
+    }
+
+    /* writes a main of straight-line statements mixing int, float and
+       bool operators, for timing the interpreter */
+    static void generateOps(String fileName, int statements) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
+        out.println("int main() {");
+        out.println("  int a, b, c;");
+        out.println("  float x, y;");
+        out.println("  bool p;");
+        out.println("  a = 1; b = 2; c = 3; x = 0.5; y = 1.5; p = true;");
+        for (int i = 0; i < statements; i++) {
+            switch (i % 4) {
+            case 0: out.println("  a = a + b * 3 - c / 7;"); break;
+            case 1: out.println("  x = x * 0.5 + y - a;"); break;
+            case 2: out.println("  p = a < b && !(x > y) || c == 2;"); break;
+            default: out.println("  b = b - a / 2 + " + i % 100 + ";"); break;
+            }
+        }
+        out.println("}");
+        out.close();
+    }
+
+    /* reports lexer throughput in tokens and megabytes per second */
+    static void lex(String fileName, boolean mapped) {
+        long bytes = new File(fileName).length();
+        long best = Long.MAX_VALUE;
+        int count = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long t0 = System.nanoTime();
+            Lexer lexer = new Lexer(fileName, mapped);
+            count = 0;
+            while (lexer.next() != Token.eofTok)
+                count++;
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        report("lex" + (mapped ? " (mmap)" : ""), count, "tokens", bytes, best);
+    }
+
+    /* reports the throughput of TokenStream.lexParallel */
+    static void lexParallel(String fileName) {
+        long bytes = new File(fileName).length();
+        long best = Long.MAX_VALUE;
+        int count = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long t0 = System.nanoTime();
+            count = TokenStream.lexParallel(fileName).size();
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        report("lex (parallel x" + ForkJoinPool.getCommonPoolParallelism() + ")",
+               count, "tokens", bytes, best);
+    }
+
+    /* times a full parse, straight from the lexer and through a packed
+       TokenStream, then the parse of the stream alone, in sequence and
+       with Parser.parallelProgram */
+    static void parse(String fileName) {
+        long bytes = new File(fileName).length();
+        TokenStream ts = new TokenStream(new Lexer(fileName, true));
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long t0 = System.nanoTime();
+            new Parser(new Lexer(fileName, true)).program();
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        report("parse", ts.size(), "tokens", bytes, best);
+        best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long t0 = System.nanoTime();
+            ts = null;
+            ts = new TokenStream(new Lexer(fileName, true));
+            new Parser(ts.cursor()).program();
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        report("parse (TokenStream)", ts.size(), "tokens", bytes, best);
+        System.out.printf("TokenStream: %.1f MB%n",
+                          ts.size() * TokenStream.STRIDE * 4.0 / (1 << 20));
+        // the parse alone, from the finished stream
+        long serial = Long.MAX_VALUE, parallel = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long t0 = System.nanoTime();
+            new Parser(ts.cursor()).program();
+            long t1 = System.nanoTime();
+            Parser.parallelProgram(ts);
+            long t2 = System.nanoTime();
+            serial = Math.min(serial, t1 - t0);
+            parallel = Math.min(parallel, t2 - t1);
+        }
+        report("parse only", ts.size(), "tokens", bytes, serial);
+        report("parse only (parallel x" + ForkJoinPool.getCommonPoolParallelism() + ")",
+               ts.size(), "tokens", bytes, parallel);
+    }
+
+    /* times a parse reading the lexer directly and through a TokenRing,
+       where lexing runs on its own thread alongside the parse */
+    static void pipeline(String fileName) {
+        long bytes = new File(fileName).length();
+        int count = new TokenStream(new Lexer(fileName, true)).size();
+        long direct = Long.MAX_VALUE, piped = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long t0 = System.nanoTime();
+            new Parser(new Lexer(fileName, true)).program();
+            long t1 = System.nanoTime();
+            new Parser(new TokenRing(new Lexer(fileName, true))).program();
+            long t2 = System.nanoTime();
+            direct = Math.min(direct, t1 - t0);
+            piped = Math.min(piped, t2 - t1);
+        }
+        report("parse", count, "tokens", bytes, direct);
+        report("parse (TokenRing)", count, "tokens", bytes, piped);
+        System.out.printf("overlap saves %.1f%% on %d cores%n",
+                          100.0 * (direct - piped) / direct,
+                          Runtime.getRuntime().availableProcessors());
+    }
+
+    /* reports interpreter throughput in operators applied per second,
+       over a program from generateOps */
+    static void interpret(String fileName) {
+        long bytes = new File(fileName).length();
+        Program prog = new Parser(new Lexer(fileName, true)).program();
+        TypeMap map = StaticTypeCheck.typing(prog.globals, prog.functions);
+        StaticTypeCheck.V(prog);
+        Program out = TypeTransformer.T(prog, map);
+        long ops = 0;
+        for (Function f : out.functions)
+            ops += operators(f.body);
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long t0 = System.nanoTime();
+            new Semantics().M(out);
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        report("interpret", ops, "ops", bytes, best);
+    }
+
+    /* reports interpreter throughput in loop iterations per second */
+    static void loops(String fileName) {
+        long bytes = new File(fileName).length();
+        Program out = CheckingTransformer.T(new Parser(new Lexer(fileName, true)).program());
+        long best = Long.MAX_VALUE, iterations = 0;
+        for (int run = 0; run < RUNS; run++) {
+            Semantics semantics = new Semantics();
+            long t0 = System.nanoTime();
+            semantics.M(out);
+            best = Math.min(best, System.nanoTime() - t0);
+            iterations = semantics.back_edges;
+        }
+        report("loops", iterations, "iterations", bytes, best);
+    }
+
+    /* the Binary and Unary nodes under s; each runs once in
+       straight-line code */
+    private static long operators(Statement s) {
+        long n = 0;
+        if (s instanceof Block)
+            for (Statement m : ((Block) s).members)
+                n += operators(m);
+        else if (s instanceof Assignment)
+            n = operators(((Assignment) s).source);
+        return n;
+    }
+
+    private static long operators(Expression e) {
+        if (e instanceof Binary)
+            return 1 + operators(((Binary) e).term1) + operators(((Binary) e).term2);
+        if (e instanceof Unary)
+            return 1 + operators(((Unary) e).term);
+        return 0;
+    }
+
+    /* compares the heap taken by a parsed Program and by its FlatAst,
+       and the time of a full walk over each */
+    static void flat(String fileName) {
+        long bytes = new File(fileName).length();
+        long heap0 = heapUsed();
+        Program prog = new Parser(new Lexer(fileName, true)).program();
+        long heap1 = heapUsed();
+        FlatAst ast = new FlatAst(prog);
+        long heap2 = heapUsed();
+        System.out.printf("%d nodes: objects %.1f MB, flat %.1f MB%n", ast.nodes(),
+                          (heap1 - heap0) / 1048576.0, (heap2 - heap1) / 1048576.0);
+        long objects = Long.MAX_VALUE, arrays = Long.MAX_VALUE;
+        long expected = 0, seen = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long t0 = System.nanoTime();
+            expected = walk(prog);
+            long t1 = System.nanoTime();
+            seen = walk(ast, ast.root());
+            long t2 = System.nanoTime();
+            objects = Math.min(objects, t1 - t0);
+            arrays = Math.min(arrays, t2 - t1);
+        }
+        if (seen != expected)
+            throw new IllegalStateException("flat walk visited " + seen
+                                            + " nodes, expected " + expected);
+        report("walk (objects)", ast.nodes(), "nodes", bytes, objects);
+        report("walk (flat)", ast.nodes(), "nodes", bytes, arrays);
+    }
+
+    /* times type checking and transforming a file's functions in
+       sequence, on the ForkJoinPool and in CheckingTransformer's one walk */
+    static void check(String fileName) {
+        long bytes = new File(fileName).length();
+        long seq = Long.MAX_VALUE, par = Long.MAX_VALUE, fused = Long.MAX_VALUE;
+        long nodes = 0;
+        for (int run = 0; run < RUNS; run++) {
+            Program prog = new Parser(new Lexer(fileName, true)).program();
+            long t0 = System.nanoTime();
+            TypeMap map = StaticTypeCheck.typing(prog.globals, prog.functions);
+            StaticTypeCheck.V(prog);
+            Program out = TypeTransformer.T(prog, map);
+            long t1 = System.nanoTime();
+            prog = new Parser(new Lexer(fileName, true)).program();
+            long t2 = System.nanoTime();
+            map = StaticTypeCheck.typing(prog.globals, prog.functions);
+            StaticTypeCheck.parallelV(prog);
+            Program parOut = TypeTransformer.parallelT(prog, map);
+            long t3 = System.nanoTime();
+            prog = new Parser(new Lexer(fileName, true)).program();
+            long t4 = System.nanoTime();
+            Program fusedOut = CheckingTransformer.T(prog);
+            long t5 = System.nanoTime();
+            ByteBuffer a = new FlatAst(out).toBytes();
+            if (!a.equals(new FlatAst(parOut).toBytes()))
+                throw new IllegalStateException("parallel check+transform of " + fileName
+                                                + " differs from the sequential one");
+            if (!a.equals(new FlatAst(fusedOut).toBytes()))
+                throw new IllegalStateException("fused check+transform of " + fileName
+                                                + " differs from the sequential one");
+            nodes = new FlatAst(out).nodes();
+            seq = Math.min(seq, t1 - t0);
+            par = Math.min(par, t3 - t2);
+            fused = Math.min(fused, t5 - t4);
+        }
+        report("check+transform", nodes, "nodes", bytes, seq);
+        report("check+transform (par)", nodes, "nodes", bytes, par);
+        report("check+transform (fused)", nodes, "nodes", bytes, fused);
+        System.out.printf("on %d cores%n", Runtime.getRuntime().availableProcessors());
+    }
+
+    /* times TypeTransformer.T alone on a checked file, and the heap its
+       output takes beyond the input it shares unchanged subtrees with */
+    static void transform(String fileName) {
+        long bytes = new File(fileName).length();
+        Program prog = new Parser(new Lexer(fileName, true)).program();
+        TypeMap map = StaticTypeCheck.typing(prog.globals, prog.functions);
+        StaticTypeCheck.V(prog);
+        long nodes = new FlatAst(prog).nodes();
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long t0 = System.nanoTime();
+            TypeTransformer.T(prog, map);
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        long heap0 = heapUsed();
+        Program out = TypeTransformer.T(prog, map);
+        long heap1 = heapUsed();
+        System.out.printf("%d nodes: transformed tree adds %.1f MB%n", new FlatAst(out).nodes(),
+                          (heap1 - heap0) / 1048576.0);
+        report("transform", nodes, "nodes", bytes, best);
+    }
+
+    /* compares running the front end on a file with loading its
+       typed Program from an AstCache entry */
+    static void cache(String fileName) throws IOException {
+        long bytes = new File(fileName).length();
+        Path entry = Files.createTempFile("bench", ".ast");
+        Program out = AstCache.frontEnd(fileName);
+        AstCache.store(entry, out); // ignores a failure to write
+        if (AstCache.load(entry) == null)
+            throw new IllegalStateException("cache entry not written to " + entry);
+        long nodes = new FlatAst(out).nodes();
+        long compile = Long.MAX_VALUE, load = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long t0 = System.nanoTime();
+            AstCache.frontEnd(fileName);
+            long t1 = System.nanoTime();
+            if (AstCache.load(entry) == null)
+                throw new IllegalStateException("cache entry " + entry + " no longer loads");
+            long t2 = System.nanoTime();
+            compile = Math.min(compile, t1 - t0);
+            load = Math.min(load, t2 - t1);
+        }
+        System.out.printf("entry %d bytes for %d source bytes%n", Files.size(entry), bytes);
+        Files.delete(entry);
+        report("front end", nodes, "nodes", bytes, compile);
+        report("cache load", nodes, "nodes", bytes, load);
+    }
+
+    /* times StaticTypeCheck's duplicate name checks on n globals and
+       n functions, for n from 1k to 1M */
+    static void names( ) {
+        for (int n = 1000; n <= 1000000; n *= 10) {
+            Declarations globals = new Declarations();
+            Functions funcs = new Functions();
+            for (int i = 0; i < n; i++) {
+                globals.add(new VariableDecl(new Variable("g" + i), Type.INT));
+                funcs.add(new Function(Type.INT, "f" + i, new Declarations(),
+                                       new Declarations(), new Block()));
+            }
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long t0 = System.nanoTime();
+                StaticTypeCheck.V(globals);
+                StaticTypeCheck.V(funcs);
+                StaticTypeCheck.V(globals, funcs);
+                best = Math.min(best, System.nanoTime() - t0);
+            }
+            System.out.printf("%8d globals, %8d functions: %8.1f ms, %5.0f ns per name%n",
+                              n, n, best / 1e6, (double) best / (2 * n));
+        }
+    }
+
+    private static long heapUsed( ) {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /* the walks count nodes, the way FlatAst numbers them */
+    private static long walk(Program p) {
+        long n = 1 + walk(p.globals);
+        for (Function f : p.functions)
+            n += 1 + walk(f.params) + walk(f.locals) + walk(f.body);
+        return n;
+    }
+
+    private static long walk(Declarations ds) {
+        return ds.size();
+    }
+
+    private static long walk(Statement s) {
+        if (s instanceof Block) {
+            long n = 1;
+            for (Statement m : ((Block) s).members)
+                n += walk(m);
+            return n;
+        }
+        if (s instanceof Assignment)
+            return 1 + walk(((Assignment) s).target) + walk(((Assignment) s).source);
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            return 1 + walk(c.test) + walk(c.thenbranch) + walk(c.elsebranch);
+        }
+        if (s instanceof Loop)
+            return 1 + walk(((Loop) s).test) + walk(((Loop) s).body);
+        if (s instanceof CallStatement)
+            return 1 + walk(((CallStatement) s).args);
+        if (s instanceof Return)
+            return 1 + walk(((Return) s).target) + walk(((Return) s).result);
+        if (s instanceof Print)
+            return 1 + walk(((Print) s).to_print);
+        return 1; // Skip
+    }
+
+    private static long walk(Expressions es) {
+        long n = 0;
+        for (Expression e : es)
+            n += walk(e);
+        return n;
+    }
+
+    private static long walk(Expression e) {
+        if (e instanceof Binary)
+            return 1 + walk(((Binary) e).term1) + walk(((Binary) e).term2);
+        if (e instanceof Unary)
+            return 1 + walk(((Unary) e).term);
+        if (e instanceof ArrayRef)
+            return 1 + walk(((ArrayRef) e).index);
+        if (e instanceof CallExpression)
+            return 1 + walk(((CallExpression) e).args);
+        return 1; // Variable or Value
+    }
+
+    private static long walk(FlatAst ast, int n) {
+        switch (ast.kind(n)) {
+        case FlatAst.PROGRAM: {
+            long count = 1 + walkList(ast, ast.globals(n));
+            int fs = ast.functions(n);
+            for (int i = 0; i < ast.size(fs); i++) {
+                int f = ast.get(fs, i);
+                count += 1 + walkList(ast, ast.params(f)) + walkList(ast, ast.locals(f))
+                    + walk(ast, ast.body(f));
+            }
+            return count;
+        }
+        case FlatAst.BLOCK:
+            return 1 + walkList(ast, ast.members(n));
+        case FlatAst.ASSIGNMENT: case FlatAst.RETURN:
+            return 1 + walk(ast, ast.target(n)) + walk(ast, ast.source(n));
+        case FlatAst.CONDITIONAL:
+            return 1 + walk(ast, ast.test(n)) + walk(ast, ast.thenBranch(n))
+                + walk(ast, ast.elseBranch(n));
+        case FlatAst.LOOP:
+            return 1 + walk(ast, ast.test(n)) + walk(ast, ast.body(n));
+        case FlatAst.CALL_STATEMENT: case FlatAst.CALL_EXPRESSION:
+            return 1 + walkList(ast, ast.args(n));
+        case FlatAst.PRINT:
+            return 1 + walk(ast, ast.toPrint(n));
+        case FlatAst.BINARY:
+            return 1 + walk(ast, ast.term1(n)) + walk(ast, ast.term2(n));
+        case FlatAst.UNARY:
+            return 1 + walk(ast, ast.term1(n));
+        case FlatAst.ARRAY_REF:
+            return 1 + walk(ast, ast.index(n));
+        default:
+            return 1;
+        }
+    }
+
+    private static long walkList(FlatAst ast, int list) {
+        long n = 0;
+        for (int i = 0; i < ast.size(list); i++)
+            n += walk(ast, ast.get(list, i));
+        return n;
+    }
+
+    private static void report(String what, long count, String unit,
+                               long bytes, long nanos) {
+        double secs = nanos / 1e9;
+        System.out.printf("%-24s %10d %s in %8.1f ms: %12.0f %s/s, %7.1f MB/s%n",
+                          what, count, unit, nanos / 1e6, count / secs, unit,
+                          bytes / secs / (1 << 20));
+    }
+
+    public static void main(String args[]) throws IOException {
+        // Benchmark gen units file | genops statements file | lex file
+        //           | parse file | pipeline file | interpret file | loops file | flat file
+        //           | check file | transform file | cache file | names
+        if (args.length == 3 && args[0].equals("gen")) {
+            generate(args[2], Integer.parseInt(args[1]));
+        } else if (args.length == 3 && args[0].equals("genops")) {
+            generateOps(args[2], Integer.parseInt(args[1]));
+        } else if (args.length == 2 && args[0].equals("lex")) {
+            lex(args[1], false);
+            lex(args[1], true);
+            lexParallel(args[1]);
+        } else if (args.length == 2 && args[0].equals("parse")) {
+            parse(args[1]);
+        } else if (args.length == 2 && args[0].equals("pipeline")) {
+            pipeline(args[1]);
+        } else if (args.length == 2 && args[0].equals("interpret")) {
+            interpret(args[1]);
+        } else if (args.length == 2 && args[0].equals("loops")) {
+            loops(args[1]);
+        } else if (args.length == 2 && args[0].equals("flat")) {
+            flat(args[1]);
+        } else if (args.length == 2 && args[0].equals("check")) {
+            check(args[1]);
+        } else if (args.length == 2 && args[0].equals("transform")) {
+            transform(args[1]);
+        } else if (args.length == 2 && args[0].equals("cache")) {
+            cache(args[1]);
+        } else if (args.length == 1 && args[0].equals("names")) {
+            names();
+        } else {
+            System.err.println("usage: Benchmark gen units file | genops statements file | lex file"
+                               + " | parse file | pipeline file | interpret file | loops file | flat file"
+                               + " | check file | transform file | cache file | names");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+// Type checking and type transforming in one walk
+package clite;
+
+import java.util.*;
+
+/* Does the work of StaticTypeCheck.V(Program) and then
+   TypeTransformer.T(Program, TypeMap) in a single walk over the tree:
+   each node is checked as V checks it, and its typed node is built
+   from its children's as T builds it, with the operand types typeOf
+   has kept in the nodes.  The output is the same Program.
+
+   So are the errors.  V's checks are made in V's order and end the
+   program when they fail.  T also walks what V never looks at, such
+   as returned expressions, call arguments and array indexes, and can
+   fail there; those failures are put off until the whole program has
+   been checked, when the first of them is reported as T would have. */
+
+public class CheckingTransformer {
+
+    private RuntimeException later; // the first failure T would have met
+
+    public static Program T (Program p) {
+	CheckingTransformer ct = new CheckingTransformer();
+	Functions t_funcs = new Functions();
+	String msg = StaticTypeCheck.collect(() -> {
+		StaticTypeCheck.names(p);
+		TypeMap outer = StaticTypeCheck.typing(p.globals, p.functions);
+		for (Function f : p.functions)
+			t_funcs.add(ct.T(f, StaticTypeCheck.typing(outer, f)));
+	});
+	StaticTypeCheck.check(msg == null, msg);
+	if (ct.later instanceof StaticTypeCheck.TypeError)
+		StaticTypeCheck.check(false, ct.later.getMessage());
+	else if (ct.later != null)
+		throw ct.later;
+	return new Program(p.globals, t_funcs);
+    }
+
+    Function T (Function f, TypeMap tm) {
+	StaticTypeCheck.heading(f);
+	Block t_body = (Block) T(f.body, tm);
+	if (t_body == f.body)
+		return f;
+	return new Function(f.t, f.id, f.params, f.locals, t_body);
+    }
+
+    // TypeTransformer.T of what V has not checked, unless something
+    // before it has already failed
+    private Expression unchecked (Expression e, TypeMap tm) {
+	if (later != null)
+		return e;
+	try {
+		return TypeTransformer.T(e, tm);
+	} catch (RuntimeException x) {
+		later = x;
+		return e;
+	}
+    }
+
+    Expression T (Expression e, TypeMap tm) {
+        if (e instanceof Value)
+            return e;
+	if (e instanceof ArrayRef) {
+	    ArrayRef a = (ArrayRef)e;
+	    StaticTypeCheck.declared(a, tm);
+	    StaticTypeCheck.index(a, StaticTypeCheck.typeOf(a.index, tm));
+	    Expression index = unchecked(a.index, tm);
+	    return index == a.index ? a : new ArrayRef(a.id, index);
+	}
+        if (e instanceof Variable) {
+            StaticTypeCheck.declared((Variable) e, tm);
+            return e;
+        }
+	if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            Type typ1 = StaticTypeCheck.typeOf(b.term1, tm);
+            Type typ2 = StaticTypeCheck.typeOf(b.term2, tm);
+            Expression t1 = T (b.term1, tm);
+            Expression t2 = T (b.term2, tm);
+            StaticTypeCheck.binary(b.op, typ1, typ2);
+            return TypeTransformer.binary(b, typ1, typ2, t1, t2, tm);
+        }
+	if (e instanceof Unary) {
+	    Unary u = (Unary) e;
+	    Type typ = StaticTypeCheck.typeOf(u.term, tm);
+	    Expression t = T (u.term, tm);
+	    StaticTypeCheck.unary(u.op, typ);
+	    return TypeTransformer.unary(u, typ, t, tm);
+	}
+	if (e instanceof CallExpression) {
+		CallExpression c = (CallExpression) e;
+		Signature sig = StaticTypeCheck.call(c, tm);
+		Expressions t_args = arguments(c.name, sig, c.args, tm);
+		return t_args == c.args ? c : new CallExpression(c.name, t_args);
+	}
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    // checks a call's arguments against the parameters in sig, as V
+    // does, then transforms them as T does; args itself when none of
+    // them changes
+    private Expressions arguments (String name, Signature sig, Expressions args, TypeMap tm) {
+	Type[] arg_types = new Type[args.size()];
+	for (int i=0; i<args.size(); i++) {
+		arg_types[i] = StaticTypeCheck.typeOf(args.get(i), tm);
+		StaticTypeCheck.argument(name, sig.param(i), arg_types[i]);
+	}
+	Expressions t_args = null;
+	for (int i=0; i<args.size(); i++)
+		t_args = TypeTransformer.copy(args, t_args, i,
+		             TypeTransformer.argument(sig.param(i), arg_types[i],
+		                                      unchecked(args.get(i), tm)));
+	return t_args == null ? args : t_args;
+    }
+
+    Statement T (Statement s, TypeMap tm) {
+        if ( s == null )
+            throw new IllegalArgumentException( "AST error: null statement");
+        else if (s instanceof Skip) return s;
+        else if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+	    Variable target = StaticTypeCheck.target(a, tm);
+	    VariableRef t_target = a.target;
+	    if (a.target instanceof ArrayRef)
+	        t_target = (VariableRef) unchecked(a.target, tm);
+            Expression src = T(a.source, tm);
+            StaticTypeCheck.assignment(target, (Type)tm.get(target),
+                                       StaticTypeCheck.typeOf(a.source, tm));
+            if (later != null)
+                return a;
+            try {
+                return TypeTransformer.assignment(a, t_target, src, tm);
+            } catch (RuntimeException x) {
+                later = x;
+                return a;
+            }
+        }
+	if (s instanceof Conditional) {
+	    Conditional c = (Conditional) s;
+	    Expression test = T(c.test, tm);
+	    Statement tbr = T(c.thenbranch, tm);
+	    Statement ebr = T(c.elsebranch, tm);
+	    StaticTypeCheck.test(c.test, StaticTypeCheck.typeOf(c.test, tm));
+	    return TypeTransformer.conditional(c, test, tbr, ebr);
+	}
+	if (s instanceof Loop) {
+	    Loop l = (Loop) s;
+	    Expression test = T(l.test, tm);
+	    Statement body = T(l.body, tm);
+	    StaticTypeCheck.test(l.test, StaticTypeCheck.typeOf(l.test, tm));
+	    return TypeTransformer.loop(l, test, body);
+	}
+	if (s instanceof Block) {
+	    Block b = (Block) s;
+	    Block out = null;
+	    for (int i=0; i<b.members.size(); i++)
+		out = TypeTransformer.copy(b, out, i, T(b.members.get(i), tm));
+	    return out == null ? b : out;
+	}
+	if (s instanceof CallStatement) {
+		CallStatement c = (CallStatement) s;
+		Signature sig = StaticTypeCheck.call(c, tm);
+		Expressions t_args = arguments(c.name, sig, c.args, tm);
+		return t_args == c.args ? c : new CallStatement(c.name, t_args);
+	}
+	if (s instanceof Return) {
+		Return r = (Return) s;
+		return TypeTransformer.ret(r, unchecked(r.result, tm));
+	}
+	if (s instanceof Print) {
+	    Print p = (Print) s;
+	    return TypeTransformer.print(p, T(p.to_print, tm));
+	}
+	throw new IllegalArgumentException("should never reach here");
+    }
+
+    public static void main(String args[]) {
+        Parser parser  = new Parser(new Lexer(args[0]));
+        Program prog = parser.program();
+        Program out = T(prog);
+        System.out.println("Output AST");
+        out.display();    // student exercise
+    } //main
+
+} // class CheckingTransformer
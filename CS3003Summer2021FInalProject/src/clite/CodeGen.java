@@ -57,7 +57,7 @@ public class CodeGen {
 	}
 
 	void M (Program p, String filename) throws IOException {
-		prog = p;
+		prog = Linker.link(p);
 
 		HashMap<String, SymbolTable> symtable_hash = new HashMap<String, SymbolTable>();
 		// New class required symbol table to map variable names to numbers
@@ -116,7 +116,7 @@ public class CodeGen {
 
     void M (Function f, HashMap<String, SymbolTable> symtable_hash, JasminFile jfile) throws IOException {
 	if (! f.id.equals("main")) {	
-		jfile.function_preamble(f.id, f.t, f.params, f.locals);
+		jfile.function_preamble(f.id, f.signature(), f.params, f.locals);
 		M (f.body, symtable_hash.get(f.id), jfile);	
 		jfile.function_writeout(f.t);	
 	} else {
@@ -288,14 +288,10 @@ public class CodeGen {
 	for (Expression arg : c.args) 
 		M(arg, symtable, jfile);
 
-	Function callee = prog.functions.get(c.name);
+	Function callee = c.target;
 
-	String j_params = "";
-	for (Declaration pi : callee.params)
-		j_params += pi.t.to_jasmin();	
-	
 	jfile.writeln("invokestatic " + jfile.get_class() + "/" 
-	+ c.name + "(" + j_params + ")" + callee.t.to_jasmin()); 
+	+ c.name + callee.signature().descriptor); 
     }
 	
     void M (Return r, SymbolTable symtable, JasminFile jfile) throws IOException {
@@ -318,6 +314,7 @@ public class CodeGen {
 	}
         if (e instanceof Binary) {
             Binary b = (Binary)e;
+            if (b.type != null) return b.type; // as the type checker found it
             if (b.op.ArithmeticOp( ))
                 if (typeOf(b.term1,sym)== Type.FLOAT)
                     return (Type.FLOAT);
@@ -327,6 +324,7 @@ public class CodeGen {
         }
         if (e instanceof Unary) {
             Unary u = (Unary)e;
+            if (u.type != null) return u.type;
 	    System.out.println("looking in Unary");
             if (u.op.NotOp( ))        return (Type.BOOL);
             else if (u.op.NegateOp( )) return typeOf(u.term,sym);
@@ -337,57 +335,56 @@ public class CodeGen {
         }
 	if (e instanceof CallExpression) {
 	    CallExpression c = (CallExpression) e;
-	    return prog.functions.get(c.name).t; 
+	    return c.target.t; 
 	}		
         throw new IllegalArgumentException("should never reach here");
     }
 
     void applyBinary (Operator op, JasminFile jfile) throws IOException {
-        if (op.val.equals(Operator.INT_PLUS)) {
+        switch (op) {
+        case INT_PLUS:
 			jfile.writeln("iadd");
 			return;
-        } if (op.val.equals(Operator.INT_MINUS)) { 
+        case INT_MINUS:
 			jfile.writeln("isub");
 			return;
-        } if (op.val.equals(Operator.INT_TIMES)) {
+        case INT_TIMES:
 			jfile.writeln("imul");
 			return;
-        } if (op.val.equals(Operator.INT_DIV)) {
+        case INT_DIV:
 			jfile.writeln("idiv");
             return; 
-		}
         // student exercise
-	if (op.val.equals(Operator.INT_LT)) {
+	case INT_LT:
 		jfile.write("\tif_icmplt ");
 		jfile.write_relop_body(branch_cnt);
 		branch_cnt++;
 		return;
-	} if (op.val.equals(Operator.INT_GT)) {
+	case INT_GT:
 		jfile.write("\tif_icmpgt ");
 		jfile.write_relop_body(branch_cnt);
 		branch_cnt++;
 		return;
-	} if (op.val.equals(Operator.INT_EQ)) {
+	case INT_EQ:
 		jfile.write("\tif_icmpeq ");
 		jfile.write_relop_body(branch_cnt);
 		branch_cnt++;
 		return;
-	} if (op.val.equals(Operator.INT_NE)) {
+	case INT_NE:
 		jfile.write("\tif_icmpne ");
 		jfile.write_relop_body(branch_cnt);
 		branch_cnt++;
 		return;
-	} if (op.val.equals(Operator.INT_GE)) {
+	case INT_GE:
 		jfile.write("\tif_icmpge ");
 		jfile.write_relop_body(branch_cnt);
 		branch_cnt++;
 		return; 
-	} if (op.val.equals(Operator.INT_LE)) {
+	case INT_LE:
 		jfile.write("\tif_icmple ");
 		jfile.write_relop_body(branch_cnt++);
 		branch_cnt++;
 		return;
-	}
 	// inconsistencies among float and int operations
 
 	/* fcmp? guide
@@ -407,7 +404,7 @@ public class CodeGen {
 	*/
 
 
-	if (op.val.equals(Operator.FLOAT_LT)) {
+	case FLOAT_LT:
 		jfile.writeln("fcmpl");
 		// 1 if its true
 		// -1 if its false
@@ -418,7 +415,7 @@ public class CodeGen {
 		jfile.write_relop_body(branch_cnt);
 		branch_cnt++;
 		return;
-	} if (op.val.equals(Operator.FLOAT_GT))  {
+	case FLOAT_GT:
 		jfile.writeln("fcmpg");
 		// 1 if its true
 		// -1 if its false
@@ -429,7 +426,7 @@ public class CodeGen {
 		jfile.write_relop_body(branch_cnt);
 		branch_cnt++;
 		return;
-	} if (op.val.equals(Operator.FLOAT_EQ)) {
+	case FLOAT_EQ:
 		jfile.writeln("fcmpg");
 		// 1 if its true
 		// -1 if its false
@@ -440,7 +437,7 @@ public class CodeGen {
 		jfile.write_relop_body(branch_cnt);
 		branch_cnt++;
 		return;
-	} if (op.val.equals(Operator.FLOAT_NE)) {
+	case FLOAT_NE:
 		jfile.writeln("fcmpg");
 		// 1 if its true
 		// -1 if its false
@@ -451,7 +448,7 @@ public class CodeGen {
 		jfile.write_relop_body(branch_cnt);
 		branch_cnt++;
 		return;
-	} if (op.val.equals(Operator.FLOAT_GE)) {
+	case FLOAT_GE:
 		jfile.writeln("fcmpg");
 		// 1 if its true
 		// -1 if its false
@@ -462,7 +459,7 @@ public class CodeGen {
 		jfile.write_relop_body(branch_cnt);
 		branch_cnt++;
 		return;
-	} if (op.val.equals(Operator.FLOAT_LE)) {
+	case FLOAT_LE:
 		jfile.writeln("fcmpg");
 		// 1 if its true
 		// -1 if its false
@@ -473,19 +470,18 @@ public class CodeGen {
 		jfile.write_relop_body(branch_cnt);
 		branch_cnt++;
 		return;
-	} if (op.val.equals(Operator.FLOAT_PLUS)) { 
+	case FLOAT_PLUS:
 			jfile.writeln("fadd");
             return;
-	} if (op.val.equals(Operator.FLOAT_MINUS)) {
+	case FLOAT_MINUS:
 			jfile.writeln("fsub");
             return; 
-        } if (op.val.equals(Operator.FLOAT_TIMES)) {
+        case FLOAT_TIMES:
 			jfile.writeln("fmul");
             return; 
-        } if (op.val.equals(Operator.FLOAT_DIV)) {
+        case FLOAT_DIV:
 			jfile.writeln("fdiv");
             return; 
-		}
 	// these are some boolean operators which Jasmin has no intructions for
 	// It turns out it's simply more efficient to operate on 32bit ints!
 	// guess it makes sense that its too big of a hassle address a single bit
@@ -497,15 +493,17 @@ public class CodeGen {
 	// types of things lies in the encoding
 
 	//at this point two ints should be on the stack which are either 1 or 0
-	if (op.val.equals(Operator.OR)) {
+	case OR:
 		jfile.writeln("ior"); 
 		return;
-	} if (op.val.equals(Operator.AND)) {
+	case AND:
 		jfile.writeln("iand");
 		return;
-	} if (op.val.equals(Operator.NOT)) {
+	case NOT:
 	//	jfile.writeln("negate");
 		return;
+	default:
+		break;
 	}
 			
         throw new IllegalArgumentException("should never reach here");
@@ -517,26 +515,29 @@ public class CodeGen {
 		// asses_out.writeln("bipush " + v)
 		// asses_out.writeln("i2f") ; or something similar
 
-        if (op.val.equals(Operator.NOT)) {
+        switch (op) {
+        case NOT:
 			//jfile.writeln("ineg");
 			//This will probably just be ineg, but I have not yet confirmed the boolean integer vals
 			return;
-        } else if (op.val.equals(Operator.INT_NEG)) {
+        case INT_NEG:
 			jfile.writeln("ineg");
 			return;
-        } else if (op.val.equals(Operator.FLOAT_NEG)) {
+        case FLOAT_NEG:
 			jfile.writeln("fneg");
 			return;
-        } else if (op.val.equals(Operator.I2F)) {
+        case I2F:
 			jfile.writeln("i2f");
 			return;
-        } else if (op.val.equals(Operator.F2I)) {
+        case F2I:
 			jfile.writeln("f2i");
 			return;
-        } else if (op.val.equals(Operator.C2I)) {
+        case C2I:
 			return; // do nothing, maybe mark this in the symbol table or something, it will affect printing.
-        } else if (op.val.equals(Operator.I2C)) {
+        case I2C:
 			return; // do nothing
+        default:
+			break;
 		}
         throw new IllegalArgumentException("should never reach here");
     } 
@@ -604,14 +605,10 @@ public class CodeGen {
 	for (Expression arg : c.args) 
 		M(arg, symtable, jfile);
 
-	Function callee = prog.functions.get(c.name);
+	Function callee = c.target;
 
-	String j_params = "";
-	for (Declaration pi : callee.params)
-		j_params += pi.t.to_jasmin();	
-	
 	jfile.writeln("invokestatic " + jfile.get_class() + "/" + 
-	c.name + "(" + j_params + ")" + callee.t.to_jasmin()); 
+	c.name + callee.signature().descriptor); 
 
 	return;
     	}
@@ -619,17 +616,23 @@ public class CodeGen {
     }
 
 	public static void main(String args[]) throws IOException, InterruptedException {
-        Parser parser  = new Parser(new Lexer(args[0]));
-        Program prog = parser.program();
-        prog.display();    // student exercise
-        System.out.println("\nBegin type checking...");
-        System.out.println("Type map:");
-        TypeMap map = StaticTypeCheck.typing(prog.globals, prog.functions);
-        map.display();    // student exercise
-        StaticTypeCheck.V(prog);
-        Program out = TypeTransformer.T(prog, map);
-        System.out.println("Output AST");
-        out.display();    // student exercise
+        Program out;
+        if (args.length > 1 && args[1].equals("-cached")) {
+            // CodeGen file -cached: reuse the typed AST of an unchanged file
+            out = AstCache.typed(args[0]);
+        } else {
+            Parser parser  = new Parser(new Lexer(args[0]));
+            Program prog = parser.program();
+            prog.display();    // student exercise
+            System.out.println("\nBegin type checking...");
+            System.out.println("Type map:");
+            TypeMap map = StaticTypeCheck.typing(prog.globals, prog.functions);
+            map.display();    // student exercise
+            StaticTypeCheck.V(prog);
+            out = TypeTransformer.T(prog, map);
+            System.out.println("Output AST");
+            out.display();    // student exercise
+        }
         CodeGen codegen = new CodeGen( );
 		System.out.println("\nReducing into Jasmin Instructions...");
 
@@ -0,0 +1,499 @@
+// Flat, struct-of-arrays abstract syntax
+package clite;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/* The same tree as a Program, held in a few parallel arrays instead of
+   one object per node.  A node is an int id; kind[id] says what it is,
+   and a[id], b[id], c[id] hold its fields:
+
+       PROGRAM         a globals (list)    b functions (list)
+       FUNCTION        a name   b type     c header (list: params, locals, body)
+       VARIABLE_DECL   a name   b type
+       ARRAY_DECL      a name   b type     c size, or UNSIZED
+       SKIP
+       BLOCK           a members (list)
+       ASSIGNMENT      a target b source
+       CONDITIONAL     a test   b then     c else
+       LOOP            a test   b body
+       CALL_STATEMENT  a name   b args (list)
+       RETURN          a target b result
+       PRINT           a expression
+       VARIABLE        a name
+       ARRAY_REF       a name   b index
+       INT_VALUE       a value            (also BOOL_VALUE, CHAR_VALUE)
+       FLOAT_VALUE     a float bits
+       DOUBLE_VALUE    a low bits  b high bits
+       BINARY          a operator  b term1  c term2
+       UNARY           a operator  b term
+       CALL_EXPRESSION a name   b args (list)
+
+   A list is an offset into one shared int pool, where its length is
+   followed by its elements.  Names are ids into a table of distinct
+   identifiers, operators are Operator ordinals and types index types[].
+   An operator's low byte is its ordinal; above it is one more than the
+   index of the type StaticTypeCheck gave the node, or 0 if none yet.
+
+   Nodes are numbered in the order a depth-first walk first meets them,
+   so a pass over the tree reads the arrays mostly front to back.  The
+   accessors are read-only; toProgram() builds the object tree back.
+
+   toBytes() and FlatAst(ByteBuffer) write and read the arrays as they
+   stand, so loading one is a few bulk copies. */
+
+public class FlatAst {
+
+    static final byte PROGRAM = 0, FUNCTION = 1, VARIABLE_DECL = 2, ARRAY_DECL = 3,
+        SKIP = 4, BLOCK = 5, ASSIGNMENT = 6, CONDITIONAL = 7, LOOP = 8,
+        CALL_STATEMENT = 9, RETURN = 10, PRINT = 11, VARIABLE = 12, ARRAY_REF = 13,
+        INT_VALUE = 14, BOOL_VALUE = 15, CHAR_VALUE = 16, FLOAT_VALUE = 17,
+        DOUBLE_VALUE = 18, BINARY = 19, UNARY = 20, CALL_EXPRESSION = 21;
+
+    private static final Type[] types = {
+        Type.INT, Type.BOOL, Type.CHAR, Type.FLOAT, Type.DOUBLE, Type.VOID
+    };
+    private static final Operator[] operators = Operator.values();
+    static final int UNSIZED = -1; // an array parameter, int a[ ]
+    private static final int MAGIC = 0x434c4954; // "CLIT"
+
+    private byte[] kind = new byte[1024];
+    private int[] a = new int[1024], b = new int[1024], c = new int[1024];
+    private int nodes = 0;
+    private int[] pool = new int[1024];
+    private int poolSize = 0;
+    private ArrayList<String> names = new ArrayList<String>();
+    private HashMap<String, Integer> nameIds = new HashMap<String, Integer>();
+    private int root;
+
+    public FlatAst (Program p) {
+        root = node(PROGRAM);
+        int globals = declarations(p.globals);
+        int[] funcs = new int[p.functions.size()];
+        for (int i = 0; i < funcs.length; i++)
+            funcs[i] = function(p.functions.get(i));
+        set(root, globals, list(funcs), 0);
+        kind = Arrays.copyOf(kind, nodes);
+        a = Arrays.copyOf(a, nodes);
+        b = Arrays.copyOf(b, nodes);
+        c = Arrays.copyOf(c, nodes);
+        pool = Arrays.copyOf(pool, poolSize);
+        nameIds = null;
+    }
+
+    private int node(byte k) {
+        if (nodes == kind.length) {
+            kind = Arrays.copyOf(kind, nodes * 2);
+            a = Arrays.copyOf(a, nodes * 2);
+            b = Arrays.copyOf(b, nodes * 2);
+            c = Arrays.copyOf(c, nodes * 2);
+        }
+        kind[nodes] = k;
+        return nodes++;
+    }
+
+    private int node(byte k, int x, int y, int z) {
+        int n = node(k);
+        set(n, x, y, z);
+        return n;
+    }
+
+    private void set(int n, int x, int y, int z) {
+        a[n] = x; b[n] = y; c[n] = z;
+    }
+
+    private int list(int[] elements) {
+        if (pool.length < poolSize + elements.length + 1)
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + elements.length + 1));
+        int at = poolSize;
+        pool[poolSize++] = elements.length;
+        System.arraycopy(elements, 0, pool, poolSize, elements.length);
+        poolSize += elements.length;
+        return at;
+    }
+
+    private int name(String id) {
+        Integer n = nameIds.get(id);
+        if (n == null) {
+            n = names.size();
+            names.add(id);
+            nameIds.put(id, n);
+        }
+        return n;
+    }
+
+    private static int type(Type t) {
+        for (int i = 0; i < types.length; i++)
+            if (types[i] == t)
+                return i;
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    private static int operator(Operator op, Type t) {
+        return op.ordinal() | (t == null ? 0 : type(t) + 1) << 8;
+    }
+
+    private int function(Function f) {
+        int n = node(FUNCTION);
+        int params = declarations(f.params);
+        int locals = declarations(f.locals);
+        int body = statement(f.body);
+        set(n, name(f.id), type(f.t), list(new int[] { params, locals, body }));
+        return n;
+    }
+
+    private int declarations(Declarations ds) {
+        int[] decls = new int[ds.size()];
+        for (int i = 0; i < decls.length; i++) {
+            Declaration d = ds.get(i);
+            if (d instanceof ArrayDecl) {
+                IntValue size = ((ArrayDecl) d).size;
+                decls[i] = node(ARRAY_DECL, name(d.v.id), type(d.t),
+                                size.isUndef() ? UNSIZED : size.intValue());
+            }
+            else
+                decls[i] = node(VARIABLE_DECL, name(d.v.id), type(d.t), 0);
+        }
+        return list(decls);
+    }
+
+    private int statement(Statement s) {
+        if (s instanceof Skip)
+            return node(SKIP);
+        if (s instanceof Block) {
+            int n = node(BLOCK);
+            ArrayList<Statement> members = ((Block) s).members;
+            int[] ms = new int[members.size()];
+            for (int i = 0; i < ms.length; i++)
+                ms[i] = statement(members.get(i));
+            a[n] = list(ms);
+            return n;
+        }
+        if (s instanceof Assignment) {
+            Assignment as = (Assignment) s;
+            int n = node(ASSIGNMENT);
+            int target = expression(as.target);
+            set(n, target, expression(as.source), 0);
+            return n;
+        }
+        if (s instanceof Conditional) {
+            Conditional cs = (Conditional) s;
+            int n = node(CONDITIONAL);
+            int test = expression(cs.test);
+            int thenbranch = statement(cs.thenbranch);
+            set(n, test, thenbranch, statement(cs.elsebranch));
+            return n;
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            int n = node(LOOP);
+            int test = expression(l.test);
+            set(n, test, statement(l.body), 0);
+            return n;
+        }
+        if (s instanceof CallStatement) {
+            CallStatement cs = (CallStatement) s;
+            int n = node(CALL_STATEMENT);
+            set(n, name(cs.name), expressions(cs.args), 0);
+            return n;
+        }
+        if (s instanceof Return) {
+            Return r = (Return) s;
+            int n = node(RETURN);
+            int target = expression(r.target);
+            set(n, target, expression(r.result), 0);
+            return n;
+        }
+        if (s instanceof Print) {
+            int n = node(PRINT);
+            a[n] = expression(((Print) s).to_print);
+            return n;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    private int expressions(Expressions es) {
+        int[] xs = new int[es.size()];
+        for (int i = 0; i < xs.length; i++)
+            xs[i] = expression(es.get(i));
+        return list(xs);
+    }
+
+    private int expression(Expression e) {
+        if (e instanceof Variable)
+            return node(VARIABLE, name(((Variable) e).id), 0, 0);
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef) e;
+            int n = node(ARRAY_REF);
+            set(n, name(r.id), expression(r.index), 0);
+            return n;
+        }
+        if (e instanceof Value) {
+            Value v = (Value) e;
+            if (v.isUndef())
+                throw new IllegalArgumentException("should never reach here");
+            if (v instanceof IntValue)
+                return node(INT_VALUE, v.intValue(), 0, 0);
+            if (v instanceof BoolValue)
+                return node(BOOL_VALUE, v.intValue(), 0, 0);
+            if (v instanceof CharValue)
+                return node(CHAR_VALUE, v.charValue(), 0, 0);
+            if (v instanceof FloatValue)
+                return node(FLOAT_VALUE, Float.floatToRawIntBits(v.floatValue()), 0, 0);
+            long bits = Double.doubleToRawLongBits(v.doubleValue());
+            return node(DOUBLE_VALUE, (int) bits, (int) (bits >>> 32), 0);
+        }
+        if (e instanceof Binary) {
+            Binary bin = (Binary) e;
+            int n = node(BINARY);
+            int term1 = expression(bin.term1);
+            set(n, operator(bin.op, bin.type), term1, expression(bin.term2));
+            return n;
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            int n = node(UNARY);
+            set(n, operator(u.op, u.type), expression(u.term), 0);
+            return n;
+        }
+        if (e instanceof CallExpression) {
+            CallExpression ce = (CallExpression) e;
+            int n = node(CALL_EXPRESSION);
+            set(n, name(ce.name), expressions(ce.args), 0);
+            return n;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    /* reads a tree written by toBytes(); throws IllegalArgumentException
+       if buf does not hold one */
+    FlatAst (ByteBuffer buf) {
+        if (buf.getInt() != MAGIC)
+            throw new IllegalArgumentException("not a flattened AST");
+        nodes = buf.getInt();
+        poolSize = buf.getInt();
+        root = buf.getInt();
+        kind = new byte[nodes];
+        a = new int[nodes];
+        b = new int[nodes];
+        c = new int[nodes];
+        pool = new int[poolSize];
+        buf.get(kind);
+        buf.position((buf.position() + 3) & ~3);
+        buf.asIntBuffer().get(a).get(b).get(c).get(pool);
+        buf.position(buf.position() + (3 * nodes + poolSize) * 4);
+        int count = buf.getInt();
+        for (int i = 0; i < count; i++) {
+            byte[] utf = new byte[buf.getInt()];
+            buf.get(utf);
+            names.add(new String(utf, StandardCharsets.UTF_8));
+        }
+        nameIds = null;
+    }
+
+    ByteBuffer toBytes( ) {
+        byte[][] utf = new byte[names.size()][];
+        int nameBytes = 0;
+        for (int i = 0; i < utf.length; i++) {
+            utf[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+            nameBytes += 4 + utf[i].length;
+        }
+        int size = 16 + ((nodes + 3) & ~3) + (3 * nodes + poolSize) * 4 + 4 + nameBytes;
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(MAGIC).putInt(nodes).putInt(poolSize).putInt(root);
+        buf.put(kind);
+        buf.position((buf.position() + 3) & ~3);
+        buf.asIntBuffer().put(a).put(b).put(c).put(pool);
+        buf.position(buf.position() + (3 * nodes + poolSize) * 4);
+        buf.putInt(utf.length);
+        for (byte[] name : utf)
+            buf.putInt(name.length).put(name);
+        buf.flip();
+        return buf;
+    }
+
+    // Read-only access
+
+    int root( ) { return root; }
+
+    int nodes( ) { return nodes; }
+
+    /* bytes held by the arrays, not counting the name strings */
+    long bytes( ) { return nodes * 13L + poolSize * 4L + names.size() * 4L; }
+
+    byte kind(int n) { return kind[n]; }
+
+    // lists
+    int size(int list) { return pool[list]; }
+
+    int get(int list, int i) { return pool[list + 1 + i]; }
+
+    // PROGRAM
+    int globals(int n) { return a[n]; }
+
+    int functions(int n) { return b[n]; }
+
+    // FUNCTION, declarations, calls, variables and array refs
+    String name(int n) { return names.get(a[n]); }
+
+    // FUNCTION and declarations
+    Type type(int n) { return types[b[n]]; }
+
+    // FUNCTION
+    int params(int n) { return get(c[n], 0); }
+
+    int locals(int n) { return get(c[n], 1); }
+
+    int body(int n) { return kind[n] == FUNCTION ? get(c[n], 2) : b[n]; } // or LOOP
+
+    // ARRAY_DECL
+    int arraySize(int n) { return c[n]; }
+
+    // BLOCK
+    int members(int n) { return a[n]; }
+
+    // ASSIGNMENT and RETURN
+    int target(int n) { return a[n]; }
+
+    int source(int n) { return b[n]; } // or RETURN's result
+
+    // CONDITIONAL and LOOP
+    int test(int n) { return a[n]; }
+
+    int thenBranch(int n) { return b[n]; }
+
+    int elseBranch(int n) { return c[n]; }
+
+    // CALL_STATEMENT and CALL_EXPRESSION
+    int args(int n) { return b[n]; }
+
+    // PRINT
+    int toPrint(int n) { return a[n]; }
+
+    // ARRAY_REF
+    int index(int n) { return b[n]; }
+
+    // literals
+    int intValue(int n) { return a[n]; }
+
+    boolean boolValue(int n) { return a[n] != 0; }
+
+    char charValue(int n) { return (char) a[n]; }
+
+    float floatValue(int n) { return Float.intBitsToFloat(a[n]); }
+
+    double doubleValue(int n) {
+        return Double.longBitsToDouble((long) b[n] << 32 | (a[n] & 0xffffffffL));
+    }
+
+    // BINARY and UNARY
+    Operator op(int n) { return operators[a[n] & 0xff]; }
+
+    Type checked(int n) { return a[n] >>> 8 == 0 ? null : types[(a[n] >>> 8) - 1]; }
+
+    int term1(int n) { return b[n]; } // or UNARY's term
+
+    int term2(int n) { return c[n]; }
+
+    /* the same tree, as objects */
+    Program toProgram( ) {
+        Functions funcs = new Functions();
+        int fs = functions(root);
+        for (int i = 0; i < size(fs); i++) {
+            int f = get(fs, i);
+            funcs.add(new Function(type(f), name(f), toDeclarations(params(f)),
+                                   toDeclarations(locals(f)), (Block) toStatement(body(f))));
+        }
+        return new Program(toDeclarations(globals(root)), funcs);
+    }
+
+    private Declarations toDeclarations(int list) {
+        Declarations ds = new Declarations();
+        for (int i = 0; i < size(list); i++) {
+            int d = get(list, i);
+            Variable v = Variable.of(name(d));
+            if (kind[d] == ARRAY_DECL)
+                ds.add(new ArrayDecl(v, type(d), arraySize(d) == UNSIZED
+                                     ? (IntValue) Value.mkValue(Type.INT)
+                                     : IntValue.of(arraySize(d))));
+            else
+                ds.add(new VariableDecl(v, type(d)));
+        }
+        return ds;
+    }
+
+    private Statement toStatement(int n) {
+        switch (kind[n]) {
+        case SKIP:
+            return new Skip();
+        case BLOCK:
+            Block block = new Block();
+            for (int i = 0; i < size(members(n)); i++)
+                block.members.add(toStatement(get(members(n), i)));
+            return block;
+        case ASSIGNMENT:
+            return new Assignment((VariableRef) toExpression(target(n)), toExpression(source(n)));
+        case CONDITIONAL:
+            return new Conditional(toExpression(test(n)), toStatement(thenBranch(n)),
+                                   toStatement(elseBranch(n)));
+        case LOOP:
+            return new Loop(toExpression(test(n)), toStatement(body(n)));
+        case CALL_STATEMENT:
+            return new CallStatement(name(n), toExpressions(args(n)));
+        case RETURN:
+            return new Return((VariableRef) toExpression(target(n)), toExpression(source(n)));
+        case PRINT:
+            return new Print(toExpression(toPrint(n)));
+        default:
+            throw new IllegalArgumentException("should never reach here");
+        }
+    }
+
+    private Expressions toExpressions(int list) {
+        Expressions es = new Expressions();
+        for (int i = 0; i < size(list); i++)
+            es.add(toExpression(get(list, i)));
+        return es;
+    }
+
+    private Expression toExpression(int n) {
+        switch (kind[n]) {
+        case VARIABLE:
+            return Variable.of(name(n));
+        case ARRAY_REF:
+            return new ArrayRef(name(n), toExpression(index(n)));
+        case INT_VALUE:
+            return IntValue.of(intValue(n));
+        case BOOL_VALUE:
+            return BoolValue.of(boolValue(n));
+        case CHAR_VALUE:
+            return CharValue.of(charValue(n));
+        case FLOAT_VALUE:
+            return new FloatValue(floatValue(n));
+        case DOUBLE_VALUE:
+            return new DoubleValue(doubleValue(n));
+        case BINARY:
+            Binary bin = new Binary(op(n), toExpression(term1(n)), toExpression(term2(n)));
+            bin.type = checked(n);
+            return bin;
+        case UNARY:
+            Unary u = new Unary(op(n), toExpression(term1(n)));
+            u.type = checked(n);
+            return u;
+        case CALL_EXPRESSION:
+            return new CallExpression(name(n), toExpressions(args(n)));
+        default:
+            throw new IllegalArgumentException("should never reach here");
+        }
+    }
+
+    public static void main(String args[]) {
+        // FlatAst file: parses file, flattens it and displays it rebuilt
+        Program prog = new Parser(new Lexer(args[0])).program();
+        FlatAst ast = new FlatAst(prog);
+        System.out.println(ast.nodes() + " nodes, " + ast.bytes() + " bytes");
+        ast.toProgram().display();
+    }
+}
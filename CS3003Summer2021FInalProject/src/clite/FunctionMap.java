@@ -1,23 +1,36 @@
 // Sourced from https://github.com/NickStephens/Clite
 package clite;
 
+import java.util.*;
+
 public class FunctionMap {
 	private Type t;
-	private FunctionTypeMap params;
+	private Signature sig;
+	private Declarations params; // only for display
 
-	public FunctionMap(Type t, FunctionTypeMap params) {
-		this.t = t; this.params = params;
+	public FunctionMap(Function f) {
+		this.t = f.t; this.sig = f.signature(); this.params = f.params;
 	}
 
 	public Type getType() {
 		return t;
 	}
 
-	public FunctionTypeMap getParams() {
-		return params;
+	public Signature getSignature() {
+		return sig;
 	}
 
 	public String toString() {
-		return " ," + t + " ," + params + ">";
+		LinkedHashMap<String, Type> named = new LinkedHashMap<String, Type>();
+		for (Declaration di : params)
+			named.put(di.v.id, di.t);
+		String ret = "[";
+		for (Map.Entry<String, Type> e : named.entrySet())
+			ret += "<" + e.getKey() + ", " + e.getValue() + ">, ";
+		if (ret.length() > 2)
+			ret = ret.substring(0, ret.length()-2) + "]";
+		else
+			ret += "]";
+		return " ," + t + " ," + ret + ">";
 	}
 }
@@ -0,0 +1,75 @@
+// Intern table for identifier tokens
+package clite;
+
+import java.util.Arrays;
+
+/* Each distinct identifier spelling gets one Token, and that Token's
+   value is the only copy of the name.  Lookups hash the lexer's
+   spelling buffer directly, so no String is built for a name that
+   has been seen before. */
+
+public class IdentTable {
+
+	private Token[] tokens = new Token[1024]; // open addressing, linear probing
+	private int[] hashes = new int[1024];
+	private Token[] bySerial = new Token[1024]; // in order of first appearance
+	private int size = 0;
+
+	/* returns the identifier token spelled by the first len chars of s */
+	public Token intern(char[] s, int len) {
+		int h = 0;
+		for (int i = 0; i < len; i++)
+			h = 31 * h + s[i];
+		int mask = tokens.length - 1;
+		for (int i = h & mask; ; i = (i + 1) & mask) {
+			Token t = tokens[i];
+			if (t == null) {
+				t = Token.mkIdentTok(new String(s, 0, len), size);
+				tokens[i] = t;
+				hashes[i] = h;
+				bySerial[size] = t;
+				if (++size * 2 > tokens.length)
+					grow();
+				return t;
+			}
+			if (hashes[i] == h && spells(t.value(), s, len))
+				return t;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/* returns the identifier whose Token.intValue() is serial */
+	public Token get(int serial) {
+		return bySerial[serial];
+	}
+
+	private static boolean spells(String name, char[] s, int len) {
+		if (name.length() != len)
+			return false;
+		for (int i = 0; i < len; i++)
+			if (name.charAt(i) != s[i])
+				return false;
+		return true;
+	}
+
+	private void grow() {
+		Token[] old_tokens = tokens;
+		int[] old_hashes = hashes;
+		tokens = new Token[old_tokens.length * 2];
+		hashes = new int[old_tokens.length * 2];
+		bySerial = Arrays.copyOf(bySerial, tokens.length);
+		int mask = tokens.length - 1;
+		for (int j = 0; j < old_tokens.length; j++) {
+			if (old_tokens[j] == null)
+				continue;
+			int i = old_hashes[j] & mask;
+			while (tokens[i] != null)
+				i = (i + 1) & mask;
+			tokens[i] = old_tokens[j];
+			hashes[i] = old_hashes[j];
+		}
+	}
+}
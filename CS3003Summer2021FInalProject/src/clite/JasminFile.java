@@ -91,28 +91,10 @@ public class JasminFile extends FileWriter {
 		limit should be the number of parameters plus the numbers of local variables declared
 		(How will globals work?)
 	*/
-	public void function_preamble(String func_name, Type return_type, Declarations params, Declarations locals) throws IOException {
-
-		// Determing the method's signature
-		String method_sig = ".method public static ";
-		method_sig += func_name;
-		method_sig += "(";
-		for (Declaration param : params) {
-			if (param.t.equals(Type.INT) || param.t.equals(Type.CHAR) ||				param.t.equals(Type.BOOL))
-			method_sig += "I";
-			else
-			method_sig += "F";
-		}	
-		method_sig += ")";
-		if (return_type.equals(Type.INT) || return_type.equals(Type.CHAR) 
-			|| return_type.equals(Type.BOOL))
-			method_sig += "I";
-		else if (return_type.equals(Type.DOUBLE)) 
-			method_sig += "D";
-		else if (return_type.equals(Type.FLOAT)) 
-			method_sig += "F";
-		else // return_type is of type void
-			method_sig += "V";
+	public void function_preamble(String func_name, Signature sig, Declarations params, Declarations locals) throws IOException {
+
+		// Determing the method's signature, the same one its calls name
+		String method_sig = ".method public static " + func_name + sig.descriptor;
 		
 		writeln(method_sig);
 		writeln("\t.limit stack" + " " + "14" + " ;(Hack!) Although it is possible to statically determine the size of the stack based off counting expression information \n\t\t\t;in a function it's too much work for now. ");
@@ -0,0 +1,42 @@
+// Where the variables of a stack frame live
+package clite;
+
+
+import java.util.*;
+
+/* Numbers the variables of a frame in the order they are declared:
+   a function's parameters and then its locals, or the globals.  A
+   StackFrame keeps its values in an array indexed by these slots, and
+   Resolver replaces each reference to a variable with one carrying its
+   slot, so the interpreter reads and writes variables without looking
+   up names.
+   A name declared twice keeps its first slot, as a FrameState key did. */
+
+final class Layout {
+
+    private final HashMap<String, Integer> index = new HashMap<String, Integer>();
+    private final ArrayList<Declaration> decls = new ArrayList<Declaration>();
+    final int ret; // the slot of $ret, or -1 for a void function
+
+    Layout (Declarations... lists) {
+	for (Declarations ds : lists)
+		for (Declaration di : ds) {
+			Integer s = index.putIfAbsent(di.v.id, decls.size());
+			if (s == null)
+				decls.add(di);
+			else
+				decls.set(s, di); // the last type declared, as onion left it
+		}
+	ret = slot("$ret");
+    }
+
+    int size ( ) { return decls.size(); }
+
+    // the slot of the variable called id, or -1 if there is none here
+    int slot (String id) {
+	Integer s = index.get(id);
+	return s == null ? -1 : s;
+    }
+
+    Declaration declaration (int slot) { return decls.get(slot); }
+}
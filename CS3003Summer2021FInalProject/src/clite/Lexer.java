@@ -3,8 +3,12 @@ package clite;
 
 
 import java.io.*;
+import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 
-public class Lexer {
+public class Lexer implements TokenSource {
 
     private boolean isEof = false;
     private char ch = ' '; 
@@ -12,14 +16,31 @@ public class Lexer {
     private String line = "";
     private int lineno = 0;
     private int col = 1;
-    private final String letters = "abcdefghijklmnopqrstuvwxyz"
-        + "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-    private final String digits = "0123456789";
+    private int offset = -1;  // source offset of ch
+    private int start = 0;    // source offset of the last token returned
+    private char[] spelling = new char[64]; // text of the token being scanned
+    private int spellLen = 0;
+    private IdentTable idents = new IdentTable();
+    boolean fatal = true; // errors exit; otherwise they throw the report
     private final char eolnCh = '\n';
     private final char eofCh = '\004';
+    // Memory-mapped mode: the whole file is scanned in place, byte by
+    // byte, instead of being copied line by line into Strings.
+    private ByteBuffer map;
+    private int pos = 0;         // offset of the next unread byte in map
+    private int lineStart = 0;   // offset of the first byte of the current line
+    private boolean newline = true; // the next byte begins a new line
     
 
     public Lexer (String fileName) { // source filename
+        this(fileName, false);
+    }
+
+    public Lexer (String fileName, boolean mapped) { // source filename
+        if (mapped) {
+            map(fileName);
+            return;
+        }
         try {
             input = new BufferedReader (new FileReader(fileName));
         }
@@ -29,9 +50,49 @@ public class Lexer {
         }
     }
 
+    /* A lexer over the same mapped file as whole, starting at offset
+       from, which must be the start of a line.  Line numbers count from
+       that line as line 1. */
+    Lexer (Lexer whole, int from) {
+        map = whole.map.duplicate();
+        pos = from;
+        lineStart = from;
+        offset = from - 1;
+    }
+
+    /* the mapped source, for splitting it between lexers */
+    ByteBuffer source() {
+        return map;
+    }
+
+    /* adds lines to the line number, once the lines before a
+       chunk lexer's starting line are known */
+    void rebase(int lines) {
+        lineno += lines;
+    }
+
+    private void map(String fileName) {
+        try (FileChannel fc = FileChannel.open(Paths.get(fileName))) {
+            if (fc.size() > Integer.MAX_VALUE) {
+                System.err.println("File too large to map: " + fileName);
+                System.exit(1);
+            }
+            map = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        } catch (NoSuchFileException e) {
+            System.out.println("File not found: " + fileName);
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(1);
+        }
+    }
+
     private char nextChar() { // Return next char
         if (ch == eofCh)
             error("Attempt to read past end of file");
+        if (map != null)
+            return nextMappedChar();
+        offset++;
         col++;
         if (col >= line.length()) {
             try {
@@ -51,19 +112,63 @@ public class Lexer {
         } // if col
         return line.charAt(col);
     }
+
+    // Same contract as the readLine() path above: lineno counts lines from 1,
+    // col is the offset of the char within its line, "\r\n" reads as '\n',
+    // and a last line without a newline still ends in one.  Bytes are taken
+    // as Latin-1, which is all Clite source needs.
+    private char nextMappedChar() {
+        int limit = map.limit();
+        if (newline) {
+            if (pos >= limit) { // at end of file
+                offset = limit;
+                col = 0;
+                return eofCh;
+            }
+            lineno++;
+            lineStart = pos;
+            newline = false;
+        }
+        col = pos - lineStart;
+        offset = pos;
+        if (pos >= limit) { // last line has no newline
+            newline = true;
+            return eolnCh;
+        }
+        char c = (char) (map.get(pos++) & 0xff);
+        if (c == '\r' && pos < limit && map.get(pos) == eolnCh) {
+            pos++;
+            c = eolnCh;
+        }
+        if (c == eolnCh)
+            newline = true;
+        return c;
+    }
+
+    private String currentLine() { // the mapped line being scanned
+        StringBuilder sb = new StringBuilder();
+        for (int i = lineStart; i < map.limit(); i++) {
+            char c = (char) (map.get(i) & 0xff);
+            if (c == eolnCh || c == '\r') break;
+            sb.append(c);
+        }
+        return sb.append(eolnCh).toString();
+    }
             
 
     public Token next( ) { // Return next token
         do {
+            start = offset;
             if (isLetter(ch)) { // ident or keyword
-                String spelling = concat(letters + digits);
-                return Token.keyword(spelling);
+                spellLen = 0;
+                do {
+                    spell(ch);
+                    ch = nextChar();
+                } while (isLetter(ch) || isDigit(ch));
+                Token word = Token.reserved(spelling, spellLen);
+                return word != null ? word : idents.intern(spelling, spellLen);
             } else if (isDigit(ch)) { // int or float literal
-                String number = concat(digits);
-                if (ch != '.')  // int Literal
-                    return Token.mkIntLiteral(number);
-                number += concat(digits);
-                return Token.mkFloatLiteral(number);
+                return number();
             } else switch (ch) {
             case ' ': case '\t': case '\r': case eolnCh:
                 ch = nextChar();
@@ -83,7 +188,7 @@ public class Lexer {
                 char ch1 = nextChar();
                 nextChar(); // get '
                 ch = nextChar();
-                return Token.mkCharLiteral("" + ch1);
+                return Token.mkCharLiteral(ch1);
                 
             case eofCh: return Token.eofTok;
             
@@ -170,13 +275,57 @@ public class Lexer {
 	return two;
     }
 
-    private String concat(String set) {
-        String r = "";
+    private void spell(char c) {
+        if (spellLen == spelling.length)
+            spelling = Arrays.copyOf(spelling, 2 * spellLen);
+        spelling[spellLen++] = c;
+    }
+
+    // Largest mantissa a float holds exactly, and the powers of ten
+    // a float holds exactly: n / 10^k is then one correctly rounded
+    // division, the same float Float.parseFloat would give.
+    private static final long FLOAT_MANTISSA = 1L << 24;
+    private static final float[] FLOAT_POW10 = {
+        1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    private Token number() {
+        // Int and float literals are converted as their digits are read;
+        // the token keeps where they were spelled, for its value().
+        Object source = map != null ? map : line;
+        int from = map != null ? offset : col;
+        long n = 0;
+        boolean exact = true; // n holds every digit read so far
+        int scale = 0;        // digits after the '.'
+        spellLen = 0;
         do {
-            r += ch;
+            if (exact) {
+                n = n * 10 + (ch - '0');
+                exact = n <= Integer.MAX_VALUE;
+            }
+            spell(ch);
             ch = nextChar();
-        } while (set.indexOf(ch) >= 0);
-        return r;
+        } while (isDigit(ch));
+        if (ch != '.') { // int Literal
+            if (!exact)
+                error("Integer literal out of range: "
+                      + new String(spelling, 0, spellLen));
+            return Token.mkIntLiteral((int) n, source, from, spellLen);
+        }
+        do {
+            spell(ch);
+            ch = nextChar();
+            if (!isDigit(ch))
+                break;
+            if (exact) {
+                n = n * 10 + (ch - '0');
+                exact = n < FLOAT_MANTISSA && ++scale < FLOAT_POW10.length;
+            }
+        } while (true);
+        if (exact && n < FLOAT_MANTISSA)
+            return Token.mkFloatLiteral(n / FLOAT_POW10[scale], source, from, spellLen);
+        return Token.mkFloatLiteral(
+            Float.parseFloat(new String(spelling, 0, spellLen)), source, from, spellLen);
     }
 
     public int get_lineno() {
@@ -187,14 +336,36 @@ public class Lexer {
 	return col;
     }
 
+    /* the table the identifiers returned by next() are interned in */
+    public IdentTable get_idents() {
+	return idents;
+    }
+
+    /* source offset of the last token returned by next() */
+    public int get_start() {
+	return start;
+    }
+
+    /* length in the source of the last token returned by next() */
+    public int get_length() {
+	return offset - start;
+    }
+
     public void error (String msg) {
-        System.err.print(line);
-        System.err.println("Error: column " + col + " " + msg);
+        String report = (map != null ? currentLine() : line)
+            + "Error: column " + col + " " + msg;
+        if (!fatal)
+            throw new IllegalArgumentException(report);
+        System.err.println(report);
         System.exit(1);
     }
 
     static public void main ( String[] argv ) {
-        Lexer lexer = new Lexer(argv[0]);
+        // Lexer file [-mmap | -parallel]
+        String mode = argv.length > 1 ? argv[1] : "";
+        TokenSource lexer = mode.equals("-parallel")
+            ? TokenStream.lexParallel(argv[0]).cursor()
+            : new Lexer(argv[0], mode.equals("-mmap"));
         Token tok = lexer.next( );
         while (tok != Token.eofTok) {
             System.out.println(tok.toString());
@@ -0,0 +1,91 @@
+// Resolves calls to the functions they call
+package clite;
+
+
+/* Sets the target of every CallStatement and CallExpression in a
+   program to the Function its name refers to, so that Semantics and
+   CodeGen follow a field at each call instead of looking the name up.
+   StaticTypeCheck has already made sure every called name exists;
+   linking a program twice does no harm. */
+
+public class Linker {
+
+    public static Program link (Program p) {
+	for (Function f : p.functions)
+		link(f.body, p.functions);
+	return p;
+    }
+
+    static void link (Statement s, Functions funcs) {
+	if (s instanceof Skip)
+		return;
+	if (s instanceof Assignment) {
+		Assignment a = (Assignment) s;
+		if (a.target instanceof ArrayRef)
+			link(((ArrayRef) a.target).index, funcs);
+		link(a.source, funcs);
+		return;
+	}
+	if (s instanceof Conditional) {
+		Conditional c = (Conditional) s;
+		link(c.test, funcs);
+		link(c.thenbranch, funcs);
+		link(c.elsebranch, funcs);
+		return;
+	}
+	if (s instanceof Loop) {
+		Loop l = (Loop) s;
+		link(l.test, funcs);
+		link(l.body, funcs);
+		return;
+	}
+	if (s instanceof Block) {
+		for (Statement m : ((Block) s).members)
+			link(m, funcs);
+		return;
+	}
+	if (s instanceof CallStatement) {
+		CallStatement c = (CallStatement) s;
+		c.target = funcs.get(c.name);
+		for (Expression arg : c.args)
+			link(arg, funcs);
+		return;
+	}
+	if (s instanceof Return) {
+		link(((Return) s).result, funcs);
+		return;
+	}
+	if (s instanceof Print) {
+		link(((Print) s).to_print, funcs);
+		return;
+	}
+	throw new IllegalArgumentException("should never reach here");
+    }
+
+    static void link (Expression e, Functions funcs) {
+	if (e instanceof Value || e instanceof Variable)
+		return;
+	if (e instanceof ArrayRef) {
+		link(((ArrayRef) e).index, funcs);
+		return;
+	}
+	if (e instanceof Binary) {
+		Binary b = (Binary) e;
+		link(b.term1, funcs);
+		link(b.term2, funcs);
+		return;
+	}
+	if (e instanceof Unary) {
+		link(((Unary) e).term, funcs);
+		return;
+	}
+	if (e instanceof CallExpression) {
+		CallExpression c = (CallExpression) e;
+		c.target = funcs.get(c.name);
+		for (Expression arg : c.args)
+			link(arg, funcs);
+		return;
+	}
+	throw new IllegalArgumentException("should never reach here");
+    }
+}
@@ -2,6 +2,7 @@
 package clite;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 public class Parser {
     // Recursive descent parser that inputs a C++Lite program and 
@@ -10,9 +11,10 @@ public class Parser {
     // at the beginning of the method.
   
     Token token;          // current token from the input stream
-    Lexer lexer;
+    TokenSource lexer;    // a Lexer, or a cursor over a TokenStream
+    boolean fatal = true; // syntax errors exit; otherwise they throw
   
-    public Parser(Lexer ts) { // Open the C++Lite source program
+    public Parser(TokenSource ts) { // Open the C++Lite source program
         lexer = ts;                          // as a token stream, and
         token = lexer.next();            // retrieve its first Token
     }
@@ -27,14 +29,15 @@ public class Parser {
     }
   
     private void error(TokenType tok) {
-        System.err.println("Syntax error: expecting: " + tok 
-                           + "; saw: " + token + " at " + lexer.get_lineno() + ":" + lexer.get_col());
-        System.exit(1);
+        error(tok.toString());
     }
   
     private void error(String tok) {
-        System.err.println("Syntax error: expecting: " + tok 
-                           + "; saw: " + token + " at " + lexer.get_lineno() + ":" + lexer.get_col());
+        String msg = "Syntax error: expecting: " + tok 
+                           + "; saw: " + token + " at " + lexer.get_lineno() + ":" + lexer.get_col();
+        if (!fatal)
+            throw new IllegalArgumentException(msg);
+        System.err.println(msg);
         System.exit(1);
     }
 
@@ -60,6 +63,99 @@ public class Parser {
 
     }
 
+    /* Parses the same Program as program(), with the functions parsed in
+       parallel on the ForkJoinPool.  A scan over the token types finds
+       where each global and function starts: a function runs from its
+       type to the brace that closes its body.  Globals are parsed here,
+       each function by its own Parser with a cursor at its start.  If
+       the scan finds anything out of the ordinary, or any function fails
+       to parse, the whole program is parsed again in sequence, so errors
+       read exactly as they do from program(). */
+    public static Program parallelProgram(TokenStream ts) {
+        ArrayList<Integer> units = units(ts);
+        if (units == null)
+            return new Parser(ts.cursor()).program();
+        Declarations globals = new Declarations();
+        ArrayList<ForkJoinTask<Function>> tasks = new ArrayList<ForkJoinTask<Function>>();
+        try {
+            for (int i = 0; i < units.size() - 1; i++) {
+                int at = units.get(i), end = units.get(i + 1);
+                if (ts.type(at + 2) != TokenType.LeftParen)
+                    unit(ts, at, end, globals, null);
+                else tasks.add(ForkJoinTask.adapt(() -> {
+                    Functions f = new Functions();
+                    unit(ts, at, end, null, f);
+                    return f.get(0);
+                }));
+            }
+            int at = units.get(units.size() - 1);
+            tasks.add(ForkJoinTask.adapt(() -> {
+                Parser p = new Parser(ts.cursor(at));
+                p.fatal = false;
+                p.type();
+                p.token = p.lexer.next();
+                return p.mainFunction();
+            }));
+            Functions funcs = new Functions();
+            for (ForkJoinTask<Function> task : ForkJoinTask.invokeAll(tasks))
+                funcs.add(task.join());
+            return new Program(globals, funcs);
+        } catch (RuntimeException e) { // a syntax error
+            return new Parser(ts.cursor()).program();
+        }
+    }
+
+    /* parses the unit of ts in [at, end) into globals or funcs */
+    private static void unit(TokenStream ts, int at, int end,
+                             Declarations globals, Functions funcs) {
+        TokenStream.Cursor c = ts.cursor(at);
+        Parser p = new Parser(c);
+        p.fatal = false;
+        p.unit(globals, funcs);
+        if (c.position() != end) // the scan and the parse disagree
+            throw new IllegalArgumentException("should never reach here");
+    }
+
+    /* the token index where each global and function of the program
+       starts, main last; null if they cannot be told apart */
+    private static ArrayList<Integer> units(TokenStream ts) {
+        ArrayList<Integer> units = new ArrayList<Integer>();
+        int n = ts.hasError() ? 0 : ts.size();
+        int i = 0;
+        while (i + 2 < n && isType(ts.type(i))) {
+            units.add(i);
+            TokenType t = ts.type(i + 1);
+            if (t == TokenType.Main)
+                return units;
+            if (t != TokenType.Identifier)
+                return null;
+            if (ts.type(i + 2) == TokenType.LeftParen) {
+                while (i < n && ts.type(i) != TokenType.LeftBrace)
+                    i++;
+                for (int depth = 0; i < n; i++) {
+                    t = ts.type(i);
+                    if (t == TokenType.LeftBrace)
+                        depth++;
+                    else if (t == TokenType.RightBrace && --depth == 0)
+                        break;
+                }
+            } else {
+                while (i < n && ts.type(i) != TokenType.Semicolon)
+                    i++;
+            }
+            i++;
+        }
+        return null;
+    }
+
+    private void unit(Declarations globals, Functions funcs) {
+        // Type Identifier FunctionOrGlobal
+        Type t = type();
+        token = lexer.next();
+        String id = match(TokenType.Identifier);
+        functionOrGlobal(t, id, globals, funcs);
+    }
+
     private void functionOrGlobal(Type t, String id, Declarations decs, Functions funcs) {
     	// FunctionOrGlobal --> ( Parameters ) { Declarations Statements } | Global
 	if (token.type().equals(TokenType.LeftParen)) {
@@ -69,7 +165,7 @@ public class Parser {
 		match(TokenType.LeftBrace);
 		Declarations locals = declarations();
 		if (t != Type.VOID) // adding a return variable 
-			locals.add(new VariableDecl(new Variable("$ret"), t));
+			locals.add(new VariableDecl(Variable.of("$ret"), t));
 		Block body = statements();
 		match(TokenType.RightBrace);
 		funcs.add(new Function(t, id, params, locals, body));
@@ -101,9 +197,9 @@ public class Parser {
 		if (token.type().equals(TokenType.LeftBracket)) {
 			match(token.type());
 			match(TokenType.RightBracket);
-			dec.add(new ArrayDecl(new Variable(id), t, (IntValue) Value.mkValue(Type.INT)));
+			dec.add(new ArrayDecl(Variable.of(id), t, (IntValue) Value.mkValue(Type.INT)));
 		} else 
-			dec.add(new VariableDecl(new Variable(id), t));
+			dec.add(new VariableDecl(Variable.of(id), t));
 	}
     }
 
@@ -114,9 +210,9 @@ public class Parser {
 		match(TokenType.LeftBracket);
 		IntValue size = (IntValue) literal();
 		match(TokenType.RightBracket);
-		decs.add(new ArrayDecl(new Variable(id), t, size));
+		decs.add(new ArrayDecl(Variable.of(id), t, size));
 	} else 
-		decs.add(new VariableDecl(new Variable(id), t));
+		decs.add(new VariableDecl(Variable.of(id), t));
 	if (token.type().equals(TokenType.Comma)) {
 		token = lexer.next();
 		global(t, match(TokenType.Identifier), decs);
@@ -154,7 +250,7 @@ public class Parser {
 	 Type t = type();
 	 do {
 		token = lexer.next();
-		Variable identifier = new Variable(match(TokenType.Identifier));
+		Variable identifier = Variable.of(match(TokenType.Identifier));
 		if (token.type().equals(TokenType.LeftBracket)) {
 			// Messy array declaration stuff
 			match(token.type());
@@ -249,7 +345,7 @@ public class Parser {
   
     private Assignment assignment (String id) {
         // Assignment --> Identifier = Expression ;
-	VariableRef v = new Variable(id);
+	VariableRef v = Variable.of(id);
 	if (token.type().equals(TokenType.LeftBracket)) {
 		match(token.type());
 		Expression e = expression();
@@ -290,7 +386,7 @@ public class Parser {
     private Return returnStatement() {
     	match(TokenType.Return);
 	Expression result = expression();
-	return new Return(new Variable("$ret"), result);
+	return new Return(Variable.of("$ret"), result);
     }
 
     private Print print() {
@@ -302,68 +398,74 @@ public class Parser {
 	return new Print(to_print);
     }
 
+    // Binary operator precedence by TokenType ordinal, loosest first;
+    // 0 for tokens that are not binary operators.
+    private static final int OR = 1, AND = 2, EQUALITY = 3, RELATION = 4,
+                             ADDITION = 5, MULTIPLY = 6;
+    private static final byte[] precedence = new byte[TokenType.values().length];
+    static {
+        precedence[TokenType.Or.ordinal()] = OR;
+        precedence[TokenType.And.ordinal()] = AND;
+        for (TokenType t : new TokenType[] { TokenType.Equals, TokenType.NotEqual })
+            precedence[t.ordinal()] = EQUALITY;
+        for (TokenType t : new TokenType[] { TokenType.Less, TokenType.LessEqual,
+                                             TokenType.Greater, TokenType.GreaterEqual })
+            precedence[t.ordinal()] = RELATION;
+        for (TokenType t : new TokenType[] { TokenType.Plus, TokenType.Minus })
+            precedence[t.ordinal()] = ADDITION;
+        for (TokenType t : new TokenType[] { TokenType.Multiply, TokenType.Power,
+                                             TokenType.Divide })
+            precedence[t.ordinal()] = MULTIPLY;
+    }
+
+    // The untyped Operator each binary operator and cast token stands for
+    private static final Operator[] operators = new Operator[TokenType.values().length];
+    static {
+        TokenType[] tokens = {
+            TokenType.Or, TokenType.And, TokenType.Equals, TokenType.NotEqual,
+            TokenType.Less, TokenType.LessEqual, TokenType.Greater, TokenType.GreaterEqual,
+            TokenType.Plus, TokenType.Minus, TokenType.Multiply, TokenType.Power,
+            TokenType.Divide, TokenType.Int, TokenType.Float, TokenType.Char,
+            TokenType.Double };
+        Operator[] ops = {
+            Operator.OR, Operator.AND, Operator.EQ, Operator.NE,
+            Operator.LT, Operator.LE, Operator.GT, Operator.GE,
+            Operator.PLUS, Operator.MINUS, Operator.TIMES, Operator.POWER,
+            Operator.DIV, Operator.INT, Operator.FLOAT, Operator.CHAR,
+            Operator.DOUBLE };
+        for (int i = 0; i < tokens.length; i++)
+            operators[tokens[i].ordinal()] = ops[i];
+    }
+
     private Expression expression () {
         // Expression --> Conjunction { || Conjunction }
-	Expression e = conjunction();
-	while (token.type().equals(TokenType.Or)) {
-		Operator op = new Operator(match(TokenType.Or));
-		Expression expr2 = conjunction();
-		e = new Binary(op, e, expr2);
-	}
-	return e; 
-    }
-  
-    private Expression conjunction () {
         // Conjunction --> Equality { && Equality }
-	Expression e = equality();
-	while (token.type().equals(TokenType.And)) {
-		Operator op = new Operator(match(TokenType.And));
-		Expression expr2 = equality();
-		e = new Binary(op, e, expr2);
-	}
-        return e;  // student exercise
-    }
-  
-    private Expression equality () {
         // Equality --> Relation [ EquOp Relation ]
-	Expression e = relation();
-	if (isEqualityOp()) {
-		Operator op = new Operator(match(token.type()));	
-		Expression expr2 = relation();
-		e = new Binary(op, e, expr2);
-	}
-        return e;  // student exercise
-    }
-
-    private Expression relation (){
-        // Relation --> Addition [RelOp Addition] 
-	Expression e = addition();
-	if (isRelationalOp()) {
-		Operator op = new Operator(match(token.type()));
-		Expression expr2 = relation();
-		e = new Binary(op, e, expr2);
-	}	
-	return e; // student exercise
-    }
-  
-    private Expression addition () {
+        // Relation --> Addition [RelOp Relation]
         // Addition --> Term { AddOp Term }
-        Expression e = term();
-        while (isAddOp()) {
-            Operator op = new Operator(match(token.type()));
-            Expression term2 = term();
-            e = new Binary(op, e, term2);
-        }
-        return e;
-    }
-  
-    private Expression term () {
         // Term --> Factor { MultiplyOp Factor }
+        return expression(OR);
+    }
+
+    /* Precedence climbing: parses the longest expression whose binary
+       operators all have precedence min or more.  Left-grouping chains
+       are built by the loop, so a long sum or product costs no stack.
+       A relational operator takes a right operand at its own level, so
+       relations group to the right.  After an equality only a looser
+       operator may follow at the same level, so a == b == c stops at
+       the second ==, where the caller reports it. */
+    private Expression expression (int min) {
         Expression e = factor();
-        while (isMultiplyOp()) {
-            Operator op = new Operator(match(token.type()));
-            Expression term2 = factor();
-            e = new Binary(op, e, term2);
+        int max = MULTIPLY; // tightest operator that may still follow
+        int p = precedence[token.type().ordinal()];
+        while (p >= min && p <= max) {
+            Operator op = operators[token.type().ordinal()];
+            token = lexer.next();
+            Expression e2 = p == MULTIPLY ? factor()
+                : expression(p == RELATION ? p : p + 1);
+            e = new Binary(op, e, e2);
+            max = p == EQUALITY || p == RELATION ? p - 1 : p;
+            p = precedence[token.type().ordinal()];
         }
         return e;
     }
@@ -373,9 +475,9 @@ public class Parser {
         if (isUnaryOp()) {
 	    Operator op;
 	    if (token.type().equals(TokenType.Not)) {
-            	op = new Operator(Operator.NOT);
+            	op = Operator.NOT;
 	    } else {
-		op = new Operator(Operator.NEG);
+		op = Operator.NEG;
 	    }
 	    token = lexer.next();
             Expression term = primary();
@@ -398,7 +500,7 @@ public class Parser {
 	    } else if (token.type().equals(TokenType.LeftParen)) {
 		e = callExpression(id); // Because call has to be both a statement and an expression we distinguish its superclass with two methods.
 	    } else {		
-		e = new Variable(id);
+		e = Variable.of(id);
 	    }
         } else if (isLiteral()) {
             e = literal();
@@ -407,7 +509,10 @@ public class Parser {
             e = expression();       
             match(TokenType.RightParen);
         } else if (isType( )) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = operators[token.type().ordinal()];
+            if (op == null) // no bool or void casts
+                error("int | float | char | double");
+            token = lexer.next();
             match(TokenType.LeftParen);
             Expression term = expression();
             match(TokenType.RightParen);
@@ -429,62 +534,41 @@ public class Parser {
     }
 
     private Value literal( ) {
+	// the lexer has already converted the literal's value
 	Value val;
 	if (isBooleanLiteral()) {
-		boolean b_val = Boolean.parseBoolean(match(token.type()));
-		val = new BoolValue(b_val); //student exercise
+		boolean b_val = token.type().equals(TokenType.True);
+		val = BoolValue.of(b_val); //student exercise
 	} else if (token.type().equals(TokenType.IntLiteral)) {
-		int i_val = Integer.parseInt(match(token.type()));
-		val = new IntValue(i_val);
+		val = IntValue.of(token.intValue());
 	} else if (token.type().equals(TokenType.DoubleLiteral)) {
-		double d_val = Double.parseDouble(match(token.type()));
-		val = new DoubleValue(d_val);
+		val = new DoubleValue(token.doubleValue());
 	} else if (token.type().equals(TokenType.FloatLiteral)) {
-		float f_val = Float.parseFloat(match(token.type()));
-		val = new FloatValue(f_val);
+		val = new FloatValue(token.floatValue());
 	} else {
-		char c_val = match(token.type()).charAt(0);
-		val = new CharValue(c_val); 
+		val = CharValue.of(token.charValue()); 
 	} 
+	token = lexer.next();
 	return val;
     }
   
 
-    private boolean isAddOp( ) {
-        return token.type().equals(TokenType.Plus) ||
-               token.type().equals(TokenType.Minus);
-    }
-    
-    private boolean isMultiplyOp( ) {
-        return token.type().equals(TokenType.Multiply) ||
-        	   token.type().equals(TokenType.Power) ||
-               token.type().equals(TokenType.Divide);
-    }
-    
     private boolean isUnaryOp( ) {
         return token.type().equals(TokenType.Not) ||
                token.type().equals(TokenType.Minus);
     }
     
-    private boolean isEqualityOp( ) {
-        return token.type().equals(TokenType.Equals) ||
-            token.type().equals(TokenType.NotEqual);
-    }
-    
-    private boolean isRelationalOp( ) {
-        return token.type().equals(TokenType.Less) ||
-               token.type().equals(TokenType.LessEqual) || 
-               token.type().equals(TokenType.Greater) ||
-               token.type().equals(TokenType.GreaterEqual);
-    }
-    
     private boolean isType( ) {
-        return token.type().equals(TokenType.Int)
-            || token.type().equals(TokenType.Bool) 
-            || token.type().equals(TokenType.Double)
-            || token.type().equals(TokenType.Float)
-            || token.type().equals(TokenType.Char)
-	    || token.type().equals(TokenType.Void);
+        return isType(token.type());
+    }
+
+    private static boolean isType(TokenType t) {
+        return t.equals(TokenType.Int)
+            || t.equals(TokenType.Bool) 
+            || t.equals(TokenType.Double)
+            || t.equals(TokenType.Float)
+            || t.equals(TokenType.Char)
+	    || t.equals(TokenType.Void);
     }
     
     private boolean isLiteral( ) {
@@ -0,0 +1,168 @@
+// Resolves variables to their slots in a frame
+package clite;
+
+
+import java.util.*;
+
+/* Gives back a program with every Variable in its function bodies
+   replaced by a ResolvedVariable carrying its slot, and every ArrayRef by
+   a ResolvedArrayRef carrying its array's: in the function's own Layout
+   if it is a parameter or local there, and otherwise in the globals'.
+   This is the static link lookup StackFrame.get used to make at every
+   read, done once.  The replacements keep their names, so the tree
+   still reads as before to everything but Semantics; resolving a
+   program twice does no harm.
+
+   The program given is left as it was.  A typed program shares the
+   subtrees TypeTransformer left alone with the parser's, so the nodes
+   above a replacement are copied, as TypeTransformer copies them, rather
+   than changed.  Every call is copied too, so that the Linker, which
+   runs on the result, sets the targets of calls no other tree holds. */
+
+public class Resolver {
+
+    private final Layout globals;
+    private final Layout locals;
+    private final HashMap<String, Variable> resolved = new HashMap<String, Variable>();
+
+    private Resolver (Layout globals, Layout locals) {
+	this.globals = globals;
+	this.locals = locals;
+    }
+
+    public static Program resolve (Program p) {
+	Layout globals = new Layout(p.globals);
+	Functions funcs = new Functions();
+	for (Function f : p.functions) {
+		Block body = (Block) new Resolver(globals, f.layout()).resolve(f.body);
+		funcs.add(new Function(f.t, f.id, f.params, f.locals, body));
+	}
+	return new Program(p.globals, funcs);
+    }
+
+    private Variable resolve (Variable v) {
+	if (v instanceof ResolvedVariable)
+		return v;
+	Variable r = resolved.get(v.id);
+	if (r != null)
+		return r;
+	int slot = locals.slot(v.id);
+	if (slot >= 0)
+		r = new ResolvedVariable(v.id, slot, false);
+	else if ((slot = globals.slot(v.id)) >= 0)
+		r = new ResolvedVariable(v.id, slot, true);
+	else
+		r = v; // StaticTypeCheck has ruled this out
+	resolved.put(v.id, r);
+	return r;
+    }
+
+    private ArrayRef resolve (ArrayRef a) {
+	Expression index = resolve(a.index);
+	if (a instanceof ResolvedArrayRef) {
+		ResolvedArrayRef r = (ResolvedArrayRef) a;
+		return index == a.index ? a : new ResolvedArrayRef(a.id, index, r.slot, r.global);
+	}
+	int slot = locals.slot(a.id);
+	if (slot >= 0 && locals.declaration(slot) instanceof ArrayDecl)
+		return new ResolvedArrayRef(a.id, index, slot, false);
+	slot = globals.slot(a.id);
+	if (slot >= 0 && globals.declaration(slot) instanceof ArrayDecl)
+		return new ResolvedArrayRef(a.id, index, slot, true);
+	return index == a.index ? a : new ArrayRef(a.id, index);
+    }
+
+    private VariableRef resolve (VariableRef v) {
+	if (v instanceof Variable)
+		return resolve((Variable) v);
+	return resolve((ArrayRef) v);
+    }
+
+    // s with its variables resolved, itself if it has none to resolve
+    private Statement resolve (Statement s) {
+	if (s instanceof Skip)
+		return s;
+	if (s instanceof Assignment) {
+		Assignment a = (Assignment) s;
+		VariableRef target = resolve(a.target);
+		Expression source = resolve(a.source);
+		if (target == a.target && source == a.source)
+			return a;
+		return new Assignment(target, source);
+	}
+	if (s instanceof Conditional) {
+		Conditional c = (Conditional) s;
+		return TypeTransformer.conditional(c, resolve(c.test),
+		                                   resolve(c.thenbranch), resolve(c.elsebranch));
+	}
+	if (s instanceof Loop) {
+		Loop l = (Loop) s;
+		return TypeTransformer.loop(l, resolve(l.test), resolve(l.body));
+	}
+	if (s instanceof Block) {
+		Block b = (Block) s;
+		Block out = null;
+		for (int i=0; i<b.members.size(); i++)
+			out = TypeTransformer.copy(b, out, i, resolve(b.members.get(i)));
+		return out == null ? b : out;
+	}
+	if (s instanceof CallStatement) {
+		CallStatement c = (CallStatement) s;
+		return new CallStatement(c.name, resolve(c.args));
+	}
+	if (s instanceof Return) {
+		Return r = (Return) s;
+		VariableRef target = r.target instanceof Variable ? resolve((Variable) r.target) : r.target;
+		Expression result = resolve(r.result);
+		if (target == r.target && result == r.result)
+			return r;
+		return new Return(target, result);
+	}
+	if (s instanceof Print) {
+		Print p = (Print) s;
+		return TypeTransformer.print(p, resolve(p.to_print));
+	}
+	throw new IllegalArgumentException("should never reach here");
+    }
+
+    private Expressions resolve (Expressions args) {
+	Expressions out = null;
+	for (int i=0; i<args.size(); i++)
+		out = TypeTransformer.copy(args, out, i, resolve(args.get(i)));
+	return out == null ? args : out;
+    }
+
+    // e with its variables resolved, itself if it has none to resolve
+    private Expression resolve (Expression e) {
+	if (e instanceof Value)
+		return e;
+	if (e instanceof Variable)
+		return resolve((Variable) e);
+	if (e instanceof ArrayRef)
+		return resolve((ArrayRef) e);
+	if (e instanceof Binary) {
+		Binary b = (Binary) e;
+		Expression t1 = resolve(b.term1);
+		Expression t2 = resolve(b.term2);
+		if (t1 == b.term1 && t2 == b.term2)
+			return b;
+		Binary out = new Binary(b.op, t1, t2);
+		out.type = b.type;
+		return out;
+	}
+	if (e instanceof Unary) {
+		Unary u = (Unary) e;
+		Expression t = resolve(u.term);
+		if (t == u.term)
+			return u;
+		Unary out = new Unary(u.op, t);
+		out.type = u.type;
+		return out;
+	}
+	if (e instanceof CallExpression) {
+		CallExpression c = (CallExpression) e;
+		return new CallExpression(c.name, resolve(c.args));
+	}
+	throw new IllegalArgumentException("should never reach here");
+    }
+}
@@ -11,12 +11,56 @@ import java.util.*;
 public class Semantics {
 
     private boolean saw_ret = false; // a global flag which causes return statements to stop execution of a block
+    long back_edges = 0; // loop iterations run, as Benchmark reports them
+
+    // the Java stack one Clite call takes, allowing for the calls of M
+    // in between and for the expressions in its arguments
+    private static final long CALL_STACK = 16 * 1024;
+
+    /* Each Clite call nests several calls of M, so the program is run
+       on a thread with a Java stack for Stack.MAX_DEPTH of them, rather
+       than on the caller's; what it throws is thrown again here.  A
+       depth outside 1 to Stack.DEEPEST is reported before anything is
+       run, and a stack the system cannot give the thread as a stack
+       overflow */
+    State M (Program p) {
+	StaticTypeCheck.check( Stack.MAX_DEPTH >= 1 && Stack.MAX_DEPTH <= Stack.DEEPEST,
+		"clite.stack must be from 1 to " + Stack.DEEPEST + ", not " + Stack.MAX_DEPTH);
+	State[] result = new State[1];
+	Throwable[] failure = new Throwable[1];
+	Thread t = new Thread(null, () -> {
+		try {
+			result[0] = run(p);
+		} catch (StackOverflowError x) {
+			StaticTypeCheck.check(false, "stack overflow");
+		} catch (RuntimeException | Error x) {
+			failure[0] = x;
+		}
+	}, "clite", Stack.MAX_DEPTH * CALL_STACK);
+	try {
+		t.start();
+	} catch (OutOfMemoryError x) {
+		StaticTypeCheck.check(false,
+			"stack overflow: no room for calls nested " + Stack.MAX_DEPTH + " deep");
+	}
+	try {
+		t.join();
+	} catch (InterruptedException x) {
+		throw new IllegalStateException(x);
+	}
+	if (failure[0] instanceof RuntimeException)
+		throw (RuntimeException) failure[0];
+	if (failure[0] != null)
+		throw (Error) failure[0];
+	return result[0];
+    }
 
-    State M (Program p) { 
+    private State run (Program p) { 
 	// The meaning of a program is the meaning of main with both the globals and main's StackFrames on the state's stack.
 
+	p = Linker.link(Resolver.resolve(p));
 	State state = initialState(p);
-	state.push(new StackFrame("main", state));
+	state.push(new StackFrame(p.functions.get("main"), state));
 	return M (state.get_instrs(), state);
 
     }
@@ -39,8 +83,10 @@ public class Semantics {
     }
 
     State byValue (Declarations params, ArrayList<Value> args, State state) {
+	// the parameters take the first slots of the frame
+	StackFrame top = state.get_stack_top();
 	for (int i=0; i<params.size(); i++) 
-		state.set(params.get(i).v, args.get(i));	
+		top.set(i, args.get(i));	
 	return state;
     }
  
@@ -61,12 +107,20 @@ public class Semantics {
     }
   
     State M (Assignment a, State state) {
+    	if (a.target instanceof ResolvedArrayRef) {
+		ResolvedArrayRef r = (ResolvedArrayRef) a.target;
+		int i = intOf(r.index, state);
+		state.get_array(r).set(i, M(a.source, state));
+		return state;
+	}
     	if (a.target instanceof ArrayRef) {
 		ArrayRef b = (ArrayRef) a.target;
 		ArrayRef r = new ArrayRef(b.id, M(b.index, state));
         	State st = state.set(r, M (a.source, state));
 		return st;
 	}
+	if (a.target instanceof ResolvedVariable)
+		return state.set((ResolvedVariable) a.target, M(a.source, state));
 	State st = state.set(a.target, M(a.source, state));
 	return st;
     }
@@ -81,17 +135,21 @@ public class Semantics {
     }
   
     State M (Conditional c, State state) {
-        if (M(c.test, state).boolValue( )) {
+        if (test(c.test, state)) {
             		return M (c.thenbranch, state);
 		} else {
             		return M (c.elsebranch, state);
 		}
     }
   
+    // iterates in Java rather than recursing once per iteration, so the
+    // number of iterations is not bounded by the Java stack
     State M (Loop l, State state) {
-        if (M (l.test, state).boolValue( ) && !saw_ret)
-            return M(l, M (l.body, state));
-        else return state;
+        while (test(l.test, state) && !saw_ret) {
+            state = M (l.body, state);
+            back_edges++;
+        }
+        return state;
     }
 
     State M (CallStatement c, State state) {
@@ -103,7 +161,7 @@ public class Semantics {
 	}
 
     	// push c's stackframe onto stack
-	state.push(new StackFrame(c.name, state));
+	state.push(new StackFrame(c.target, state));
 
 	// assign the arguments to the values of the parameters on c's stackframe
 	byValue(state.get_params(), args, state);
@@ -130,7 +188,10 @@ public class Semantics {
     }
 
     State M (Return r, State state) {
-	state.set(r.target, M(r.result, state));
+	if (r.target instanceof ResolvedVariable)
+		state.set((ResolvedVariable) r.target, M(r.result, state));
+	else
+		state.set(r.target, M(r.result, state));
 	saw_ret = true;
 	return state;
     }
@@ -138,113 +199,355 @@ public class Semantics {
     Value applyBinary (Operator op, Value v1, Value v2) {
         StaticTypeCheck.check( ! v1.isUndef( ) && ! v2.isUndef( ),
                "reference to undef value");
-        if (op.val.equals(Operator.INT_PLUS)) 
-            return new IntValue(v1.intValue( ) + v2.intValue( ));
-        if (op.val.equals(Operator.INT_MINUS)) 
-            return new IntValue(v1.intValue( ) - v2.intValue( ));
-        if (op.val.equals(Operator.INT_TIMES)) 
-            return new IntValue(v1.intValue( ) * v2.intValue( ));
-        if (op.val.equals(Operator.INT_DIV)) 
-            return new IntValue(v1.intValue( ) / v2.intValue( ));
-        if (op.val.equals(Operator.INT_POWER))
-        	return new IntValue((int)Math.pow(v1.intValue( ), v2.intValue( )));
+        switch (op) {
+        case INT_PLUS:
+            return IntValue.of(v1.intValue( ) + v2.intValue( ));
+        case INT_MINUS:
+            return IntValue.of(v1.intValue( ) - v2.intValue( ));
+        case INT_TIMES:
+            return IntValue.of(v1.intValue( ) * v2.intValue( ));
+        case INT_DIV:
+            return IntValue.of(v1.intValue( ) / v2.intValue( ));
+        case INT_POWER:
+        	return IntValue.of((int)Math.pow(v1.intValue( ), v2.intValue( )));
         // student exercise
-	if (op.val.equals(Operator.INT_LT)) {
-	    return new BoolValue(v1.intValue() < v2.intValue());
-	} if (op.val.equals(Operator.INT_GT)) {
-	    return new BoolValue(v1.intValue() > v2.intValue());
-	} if (op.val.equals(Operator.INT_EQ))
-	    return new BoolValue(v1.intValue() == v2.intValue());
-	if (op.val.equals(Operator.INT_NE))
-	    return new BoolValue(v1.intValue() != v2.intValue());
-
-	if (op.val.equals(Operator.DOUBLE_LT))
-	    return new BoolValue(v1.doubleValue() < v2.doubleValue());
-	if (op.val.equals(Operator.DOUBLE_GT))
-	    return new BoolValue(v1.doubleValue() > v2.doubleValue());
-	if (op.val.equals(Operator.DOUBLE_EQ))
-	    return new BoolValue(v1.doubleValue() == v2.doubleValue());
-	if (op.val.equals(Operator.DOUBLE_NE))
-	    return new BoolValue(v1.doubleValue() != v2.doubleValue());
-
-	if (op.val.equals(Operator.DOUBLE_PLUS)) 
+	case INT_LT:
+	    return BoolValue.of(v1.intValue() < v2.intValue());
+	case INT_GT:
+	    return BoolValue.of(v1.intValue() > v2.intValue());
+	case INT_EQ:
+	    return BoolValue.of(v1.intValue() == v2.intValue());
+	case INT_NE:
+	    return BoolValue.of(v1.intValue() != v2.intValue());
+
+	case DOUBLE_LT:
+	    return BoolValue.of(v1.doubleValue() < v2.doubleValue());
+	case DOUBLE_GT:
+	    return BoolValue.of(v1.doubleValue() > v2.doubleValue());
+	case DOUBLE_EQ:
+	    return BoolValue.of(v1.doubleValue() == v2.doubleValue());
+	case DOUBLE_NE:
+	    return BoolValue.of(v1.doubleValue() != v2.doubleValue());
+
+	case DOUBLE_PLUS:
             return new DoubleValue(v1.doubleValue( ) + v2.doubleValue( ));
-        if (op.val.equals(Operator.DOUBLE_MINUS)) 
+        case DOUBLE_MINUS:
             return new DoubleValue(v1.doubleValue( ) - v2.doubleValue( ));
-        if (op.val.equals(Operator.DOUBLE_TIMES)) 
+        case DOUBLE_TIMES:
             return new DoubleValue(v1.doubleValue( ) * v2.doubleValue( ));
-        if (op.val.equals(Operator.DOUBLE_DIV)) 
+        case DOUBLE_DIV:
             return new DoubleValue(v1.doubleValue( ) / v2.doubleValue( ));
 
-	if (op.val.equals(Operator.FLOAT_LT))
-	    return new BoolValue(v1.floatValue() < v2.floatValue());
-	if (op.val.equals(Operator.FLOAT_GT))
-	    return new BoolValue(v1.floatValue() > v2.floatValue());
-	if (op.val.equals(Operator.FLOAT_EQ))
-	    return new BoolValue(v1.floatValue() == v2.floatValue());
-	if (op.val.equals(Operator.FLOAT_NE))
-	    return new BoolValue(v1.floatValue() != v2.floatValue());
+	case FLOAT_LT:
+	    return BoolValue.of(v1.floatValue() < v2.floatValue());
+	case FLOAT_GT:
+	    return BoolValue.of(v1.floatValue() > v2.floatValue());
+	case FLOAT_EQ:
+	    return BoolValue.of(v1.floatValue() == v2.floatValue());
+	case FLOAT_NE:
+	    return BoolValue.of(v1.floatValue() != v2.floatValue());
 
-	if (op.val.equals(Operator.FLOAT_PLUS)) 
+	case FLOAT_PLUS:
             return new FloatValue(v1.floatValue( ) + v2.floatValue( ));
-        if (op.val.equals(Operator.FLOAT_MINUS)) 
+        case FLOAT_MINUS:
             return new FloatValue(v1.floatValue( ) - v2.floatValue( ));
-        if (op.val.equals(Operator.FLOAT_TIMES)) 
+        case FLOAT_TIMES:
             return new FloatValue(v1.floatValue( ) * v2.floatValue( ));
-        if (op.val.equals(Operator.FLOAT_DIV)) 
+        case FLOAT_DIV:
             return new FloatValue(v1.floatValue( ) / v2.floatValue( ));
-        if (op.val.equals(Operator.FLOAT_POWER))
+        case FLOAT_POWER:
         	return new FloatValue((float)Math.pow(v1.floatValue( ), v2.floatValue( )));
 
-	if (op.val.equals(Operator.BOOL_LT)) 
-            return new BoolValue(v1.intValue( ) < v2.intValue( ));
-        if (op.val.equals(Operator.BOOL_GT)) 
-            return new BoolValue(v1.intValue( ) > v2.intValue( ));
-        if (op.val.equals(Operator.BOOL_EQ)) 
-            return new BoolValue(v1.boolValue( ) == v2.boolValue( ));
-        if (op.val.equals(Operator.BOOL_NE)) 
-            return new BoolValue(v1.boolValue( ) != v2.boolValue( ));
-		if (op.val.equals(Operator.AND))
-			return new BoolValue(v1.boolValue( ) && v2.boolValue( ));
-		if (op.val.equals(Operator.OR))
-			return new BoolValue(v1.boolValue( ) || v2.boolValue( ));
-        throw new IllegalArgumentException("should never reach here");
+	case BOOL_LT:
+            return BoolValue.of(v1.intValue( ) < v2.intValue( ));
+        case BOOL_GT:
+            return BoolValue.of(v1.intValue( ) > v2.intValue( ));
+        case BOOL_EQ:
+            return BoolValue.of(v1.boolValue( ) == v2.boolValue( ));
+        case BOOL_NE:
+            return BoolValue.of(v1.boolValue( ) != v2.boolValue( ));
+	case AND:
+		return BoolValue.of(v1.boolValue( ) && v2.boolValue( ));
+	case OR:
+		return BoolValue.of(v1.boolValue( ) || v2.boolValue( ));
+        default:
+            throw new IllegalArgumentException("should never reach here");
+        }
 	
     } 
     
     Value applyUnary (Operator op, Value v) {
         StaticTypeCheck.check( ! v.isUndef( ),
                "reference to undef value");
-        if (op.val.equals(Operator.NOT))
-            return new BoolValue(!v.boolValue( ));
-        else if (op.val.equals(Operator.INT_NEG))
-            return new IntValue(-v.intValue( ));
-        else if (op.val.equals(Operator.DOUBLE_NEG))
+        switch (op) {
+        case NOT:
+            return BoolValue.of(!v.boolValue( ));
+        case INT_NEG:
+            return IntValue.of(-v.intValue( ));
+        case DOUBLE_NEG:
             return new DoubleValue(-v.doubleValue( ));
-        else if (op.val.equals(Operator.FLOAT_NEG)) {
+        case FLOAT_NEG:
             return new FloatValue(-v.floatValue( ));
-        } else if (op.val.equals(Operator.I2F)) 
+        case I2F:
             return new FloatValue((float)(v.intValue( ))); 
-        else if (op.val.equals(Operator.F2I))
-            return new IntValue((int)(v.floatValue( )));
-        else if (op.val.equals(Operator.C2I))
-            return new IntValue((int)(v.charValue( )));
-        else if (op.val.equals(Operator.I2C))
-            return new CharValue((char)(v.intValue( )));
-        else if (op.val.equals(Operator.D2I))
-            return new IntValue((int)(v.doubleValue( )));
-        else if (op.val.equals(Operator.I2D))
+        case F2I:
+            return IntValue.of((int)(v.floatValue( )));
+        case C2I:
+            return IntValue.of((int)(v.charValue( )));
+        case I2C:
+            return CharValue.of((char)(v.intValue( )));
+        case D2I:
+            return IntValue.of((int)(v.doubleValue( )));
+        case I2D:
             return new DoubleValue((double)(v.intValue( )));
-        else if (op.val.equals(Operator.D2F)) 
+        case D2F:
             return new FloatValue((float)(v.doubleValue( ))); 
-        else if (op.val.equals(Operator.F2D))
+        case F2D:
             return new DoubleValue((double)(v.floatValue( )));
-        throw new IllegalArgumentException("should never reach here");
+        default:
+            throw new IllegalArgumentException("should never reach here");
+        }
     } 
 
+    /* The typed operators below are applied to primitives, and their
+       operands evaluated to primitives, so no Value is made between one
+       operator and the next.  M makes one only for the result of a
+       whole expression, from the shared ones where it can.  They do
+       what applyBinary and applyUnary do, which still handle the
+       operators these leave out. */
+
+    // the type of op's result, or null if only applyBinary or
+    // applyUnary can apply it
+    private static Type result (Operator op) {
+        switch (op) {
+        case INT_PLUS: case INT_MINUS: case INT_TIMES: case INT_DIV: case INT_POWER:
+        case INT_NEG: case F2I: case C2I: case D2I:
+            return Type.INT;
+        case FLOAT_PLUS: case FLOAT_MINUS: case FLOAT_TIMES: case FLOAT_DIV: case FLOAT_POWER:
+        case FLOAT_NEG: case I2F: case D2F:
+            return Type.FLOAT;
+        case DOUBLE_PLUS: case DOUBLE_MINUS: case DOUBLE_TIMES: case DOUBLE_DIV:
+        case DOUBLE_NEG: case I2D: case F2D:
+            return Type.DOUBLE;
+        case I2C:
+            return Type.CHAR;
+        case INT_LT: case INT_GT: case INT_EQ: case INT_NE:
+        case FLOAT_LT: case FLOAT_GT: case FLOAT_EQ: case FLOAT_NE:
+        case DOUBLE_LT: case DOUBLE_GT: case DOUBLE_EQ: case DOUBLE_NE:
+        case BOOL_LT: case BOOL_GT: case BOOL_EQ: case BOOL_NE:
+        case AND: case OR: case NOT:
+            return Type.BOOL;
+        default:
+            return null;
+        }
+    }
+
+    private Value box (Type t, Expression e, State state) {
+        if (t == Type.INT) return IntValue.of(intOf(e, state));
+        if (t == Type.BOOL) return BoolValue.of(boolOf(e, state));
+        if (t == Type.CHAR) return CharValue.of(charOf(e, state));
+        if (t == Type.FLOAT) return new FloatValue(floatOf(e, state));
+        return new DoubleValue(doubleOf(e, state));
+    }
+
+    // the value of an operand, which may not be undef
+    private Value operand (Expression e, State state) {
+        Value v = M(e, state);
+        StaticTypeCheck.check( ! v.isUndef( ), "reference to undef value");
+        return v;
+    }
+
+    // a loop's or a conditional's test, which is only an operand if
+    // it is an operator's result
+    private boolean test (Expression e, State state) {
+        if (e instanceof Binary || e instanceof Unary)
+            return boolOf(e, state);
+        return M(e, state).boolValue( );
+    }
+
+    int intOf (Expression e, State state) {
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            switch (b.op) {
+            case INT_PLUS:
+                return intOf(b.term1, state) + intOf(b.term2, state);
+            case INT_MINUS:
+                return intOf(b.term1, state) - intOf(b.term2, state);
+            case INT_TIMES:
+                return intOf(b.term1, state) * intOf(b.term2, state);
+            case INT_DIV:
+                return intOf(b.term1, state) / intOf(b.term2, state);
+            case INT_POWER:
+                return (int)Math.pow(intOf(b.term1, state), intOf(b.term2, state));
+            default:
+                break;
+            }
+        } else if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            switch (u.op) {
+            case INT_NEG:
+                return -intOf(u.term, state);
+            case F2I:
+                return (int)(floatOf(u.term, state));
+            case C2I:
+                return (int)(charOf(u.term, state));
+            case D2I:
+                return (int)(doubleOf(u.term, state));
+            default:
+                break;
+            }
+        }
+        if (e instanceof ResolvedArrayRef) {
+            ResolvedArrayRef a = (ResolvedArrayRef)e;
+            return state.get_array(a).intAt(intOf(a.index, state));
+        }
+        return operand(e, state).intValue( );
+    }
+
+    float floatOf (Expression e, State state) {
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            switch (b.op) {
+            case FLOAT_PLUS:
+                return floatOf(b.term1, state) + floatOf(b.term2, state);
+            case FLOAT_MINUS:
+                return floatOf(b.term1, state) - floatOf(b.term2, state);
+            case FLOAT_TIMES:
+                return floatOf(b.term1, state) * floatOf(b.term2, state);
+            case FLOAT_DIV:
+                return floatOf(b.term1, state) / floatOf(b.term2, state);
+            case FLOAT_POWER:
+                return (float)Math.pow(floatOf(b.term1, state), floatOf(b.term2, state));
+            default:
+                break;
+            }
+        } else if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            switch (u.op) {
+            case FLOAT_NEG:
+                return -floatOf(u.term, state);
+            case I2F:
+                return (float)(intOf(u.term, state));
+            case D2F:
+                return (float)(doubleOf(u.term, state));
+            default:
+                break;
+            }
+        }
+        if (e instanceof ResolvedArrayRef) {
+            ResolvedArrayRef a = (ResolvedArrayRef)e;
+            return state.get_array(a).floatAt(intOf(a.index, state));
+        }
+        return operand(e, state).floatValue( );
+    }
+
+    double doubleOf (Expression e, State state) {
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            switch (b.op) {
+            case DOUBLE_PLUS:
+                return doubleOf(b.term1, state) + doubleOf(b.term2, state);
+            case DOUBLE_MINUS:
+                return doubleOf(b.term1, state) - doubleOf(b.term2, state);
+            case DOUBLE_TIMES:
+                return doubleOf(b.term1, state) * doubleOf(b.term2, state);
+            case DOUBLE_DIV:
+                return doubleOf(b.term1, state) / doubleOf(b.term2, state);
+            default:
+                break;
+            }
+        } else if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            switch (u.op) {
+            case DOUBLE_NEG:
+                return -doubleOf(u.term, state);
+            case I2D:
+                return (double)(intOf(u.term, state));
+            case F2D:
+                return (double)(floatOf(u.term, state));
+            default:
+                break;
+            }
+        }
+        if (e instanceof ResolvedArrayRef) {
+            ResolvedArrayRef a = (ResolvedArrayRef)e;
+            return state.get_array(a).doubleAt(intOf(a.index, state));
+        }
+        return operand(e, state).doubleValue( );
+    }
+
+    char charOf (Expression e, State state) {
+        if (e instanceof Unary && ((Unary)e).op == Operator.I2C)
+            return (char)(intOf(((Unary)e).term, state));
+        if (e instanceof ResolvedArrayRef) {
+            ResolvedArrayRef a = (ResolvedArrayRef)e;
+            return state.get_array(a).charAt(intOf(a.index, state));
+        }
+        return operand(e, state).charValue( );
+    }
+
+    // both operands of && and || are evaluated, as applyBinary has them
+    boolean boolOf (Expression e, State state) {
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            switch (b.op) {
+            case INT_LT:
+                return intOf(b.term1, state) < intOf(b.term2, state);
+            case INT_GT:
+                return intOf(b.term1, state) > intOf(b.term2, state);
+            case INT_EQ:
+                return intOf(b.term1, state) == intOf(b.term2, state);
+            case INT_NE:
+                return intOf(b.term1, state) != intOf(b.term2, state);
+            case DOUBLE_LT:
+                return doubleOf(b.term1, state) < doubleOf(b.term2, state);
+            case DOUBLE_GT:
+                return doubleOf(b.term1, state) > doubleOf(b.term2, state);
+            case DOUBLE_EQ:
+                return doubleOf(b.term1, state) == doubleOf(b.term2, state);
+            case DOUBLE_NE:
+                return doubleOf(b.term1, state) != doubleOf(b.term2, state);
+            case FLOAT_LT:
+                return floatOf(b.term1, state) < floatOf(b.term2, state);
+            case FLOAT_GT:
+                return floatOf(b.term1, state) > floatOf(b.term2, state);
+            case FLOAT_EQ:
+                return floatOf(b.term1, state) == floatOf(b.term2, state);
+            case FLOAT_NE:
+                return floatOf(b.term1, state) != floatOf(b.term2, state);
+            case BOOL_LT:
+                return operand(b.term1, state).intValue( ) < operand(b.term2, state).intValue( );
+            case BOOL_GT:
+                return operand(b.term1, state).intValue( ) > operand(b.term2, state).intValue( );
+            case BOOL_EQ:
+                return boolOf(b.term1, state) == boolOf(b.term2, state);
+            case BOOL_NE:
+                return boolOf(b.term1, state) != boolOf(b.term2, state);
+            case AND:
+                return boolOf(b.term1, state) & boolOf(b.term2, state);
+            case OR:
+                return boolOf(b.term1, state) | boolOf(b.term2, state);
+            default:
+                break;
+            }
+        } else if (e instanceof Unary && ((Unary)e).op == Operator.NOT)
+            return !boolOf(((Unary)e).term, state);
+        if (e instanceof ResolvedArrayRef) {
+            ResolvedArrayRef a = (ResolvedArrayRef)e;
+            return state.get_array(a).boolAt(intOf(a.index, state));
+        }
+        return operand(e, state).boolValue( );
+    }
+
     Value M (Expression e, State state) {
         if (e instanceof Value) 
             return (Value)e;
+	if (e instanceof ResolvedVariable)
+	    return state.get((ResolvedVariable) e);
+	if (e instanceof ResolvedArrayRef) {
+	    ResolvedArrayRef a = (ResolvedArrayRef) e;
+	    return state.get_array(a).get(intOf(a.index, state));
+	}
 	if (e instanceof ArrayRef) {
 	    ArrayRef a = (ArrayRef) e;
 	    ArrayRef key = new ArrayRef(a.id, M(a.index, state));
@@ -255,12 +558,18 @@ public class Semantics {
 	    }
         if (e instanceof Binary) {
             Binary b = (Binary)e;
-            return applyBinary (b.op, 
-                                M(b.term1, state), M(b.term2, state));
+            Type t = result(b.op);
+            if (t == null)
+                return applyBinary (b.op, 
+                                    M(b.term1, state), M(b.term2, state));
+            return box(t, e, state);
         }
         if (e instanceof Unary) {
             Unary u = (Unary)e;
-            return applyUnary(u.op, M(u.term, state));
+            Type t = result(u.op);
+            if (t == null)
+                return applyUnary(u.op, M(u.term, state));
+            return box(t, e, state);
         }
 	if (e instanceof CallExpression) {
 	    CallExpression c = (CallExpression) e;
@@ -273,7 +582,7 @@ public class Semantics {
 		}
 
 		// push c's stackframe onto stack
-		state.push(new StackFrame(c.name, state));
+		state.push(new StackFrame(c.target, state));
 		boolean temp_saw_ret = saw_ret;
 		saw_ret = false;
 
@@ -284,7 +593,7 @@ public class Semantics {
 		M (state.get_instrs(), state);
 		saw_ret = temp_saw_ret;
 
-		Value ret = state.get(new Variable("$ret"));
+		Value ret = state.get_stack_top().get(c.target.layout().ret);
 
 		// pop called func's stackframe
 		state.pop();
@@ -295,6 +604,13 @@ public class Semantics {
     }
 
     public static void main(String args[]) {
+        if (args.length > 1 && args[1].equals("-cached")) {
+            // Semantics file -cached: reuse the typed AST of an unchanged file
+            State state = new Semantics( ).M(AstCache.typed(args[0]));
+            System.out.println("Final State");
+            state.display( );
+            return;
+        }
         Parser parser  = new Parser(new Lexer(args[0]));
         Program prog = parser.program();
         prog.display();    // student exercise
@@ -0,0 +1,49 @@
+// The types of a function: its result and its parameters
+package clite;
+
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* One shared, unchanging Signature per distinct list of types, so the
+   type checker, TypeTransformer and CodeGen read a call's parameter
+   types and its Jasmin descriptor without building them at every call.
+   A parameter named twice counts once, in its first place, with the
+   last type given it, as the FunctionTypeMap this replaces kept it. */
+
+public final class Signature {
+
+    private static final ConcurrentHashMap<String, Signature> interned =
+        new ConcurrentHashMap<String, Signature>();
+
+    final Type result;
+    private final Type[] params;
+    final String descriptor; // as in invokestatic, e.g. (IF)I
+
+    private Signature (Type result, Type[] params) {
+	this.result = result;
+	this.params = params;
+	String d = "(";
+	for (Type t : params)
+		d += t.to_jasmin();
+	descriptor = d + ")" + result.to_jasmin();
+    }
+
+    static Signature of (Type result, Declarations params) {
+	LinkedHashMap<String, Type> named = new LinkedHashMap<String, Type>();
+	for (Declaration di : params)
+		named.put(di.v.id, di.t);
+	Type[] types = named.values().toArray(new Type[0]);
+	String key = result + Arrays.toString(types);
+	Signature s = interned.get(key);
+	return s != null ? s : interned.computeIfAbsent(key, k -> new Signature(result, types));
+    }
+
+    int arity ( ) { return params.length; }
+
+    Type param (int i) { return params[i]; }
+
+    public String toString ( ) {
+	return result + Arrays.toString(params);
+    }
+}
@@ -5,36 +5,41 @@ package clite;
 import java.util.*;
 
 public class Stack {
-	
+
+	/* the deepest the calls of a program may go, from the clite.stack
+	   property; Semantics gives its thread a Java stack to match */
+	static final int MAX_DEPTH = Integer.getInteger("clite.stack", 10000);
+	static final int DEEPEST = 100000; // the most it may be, a 1.6 GB Java stack; the least is 1
+
 	private int head;
-	private ArrayList<StackFrame> stack;
+	private StackFrame[] stack; // grown by doubling, up to MAX_DEPTH frames
 
 	public Stack ( ) {
 		head = 0;
-		stack = new ArrayList<StackFrame>();
+		stack = new StackFrame[16];
 	}
-	
+
 	public Stack (StackFrame stk_frm) {
-		head = 1;
-		stack = new ArrayList<StackFrame>();
-		stack.add(stk_frm);
+		this();
+		push(stk_frm);
 	}
 
 	public StackFrame get_top( ) {
 		if (head < 1)
 			throw new IllegalArgumentException("stack underflow");
-		return stack.get(head - 1);
+		return stack[head - 1];
 	}
 
 	/* pops the current head off the stack
      	   returns the head */
 	public StackFrame pop () {
 		StackFrame ret;
-		if (head < 1) 
+		if (head < 1)
 			throw new IllegalArgumentException("stack underflow");
 		else {
-			ret = stack.get(head - 1);
 			head -= 1;
+			ret = stack[head];
+			stack[head] = null; // so the frame can be collected
 		}
 		return ret;
 	}
@@ -42,7 +47,11 @@ public class Stack {
 	/* pushes a new StackFrame onto the stack
 	   returns a reference to the stack */
 	public Stack push (StackFrame stk_frm) {
-		stack.add(head, stk_frm);
+		StaticTypeCheck.check( head < MAX_DEPTH,
+			"stack overflow: calls nested deeper than " + MAX_DEPTH);
+		if (head == stack.length)
+			stack = Arrays.copyOf(stack, Math.min(2 * head, MAX_DEPTH));
+		stack[head] = stk_frm;
 		head += 1;
 		return this;
 	}
@@ -52,7 +61,7 @@ public class Stack {
 	}
 
 	public void display( ) {
-		get_top( ).display( );		
+		get_top( ).display( );
 	}
 
 	/* displays usefule debug information */
@@ -60,7 +69,7 @@ public class Stack {
 		int marker = head;
 		while (marker > 0) {
 			System.out.println(marker + "-------------");
-			stack.get(marker - 1).debug();
+			stack[marker - 1].debug();
 			marker -= 1;
 		}
 	}
@@ -7,9 +7,13 @@ import java.util.*;
 public class StackFrame { // Activation Record
 	
 	private String name;
+	private Function func; // whose activation this is, null for globals
 	private StackFrame slink;
 	private StackFrame dlink;
-	private FrameState frame_state; // This may have to change to a keyless data structure, if I'm not able to distinguish globals ahead of time.	
+	private Layout layout; // the slot of each declared variable
+	private Value[] slots; // the variables' values, by slot
+	private ArrayStorage[] arrays; // the arrays' elements, by slot
+	private FrameState frame_state; // anything set here undeclared
 	// Return Address
 	// Saved Frame Pointer
 
@@ -18,55 +22,89 @@ public class StackFrame { // Activation Record
 		name = frame_name;
 		slink = null;
 		dlink = null;
-		frame_state = new FrameState();
-		for (Declaration di : globals) 
-			frame_state.onion(di.v, Value.mkValue(di.t));
+		declare(new Layout(globals));
 	}
 
 	/* This constructor assumes that all StackFrames are generated by function calls,
 	    and each stack_frame is named after the function being called. */
 	public StackFrame (String frame_name, State st) {
-		name = frame_name;
+		this(st.get_func(frame_name), st);
+	}
+
+	/* The same, given the function itself, as a linked call has it */
+	public StackFrame (Function f, State st) {
+		name = f.id;
+		func = f;
 		slink = st.get_dataseg();
 		try {
 			dlink = st.get_stack_top();
 		} catch (IllegalArgumentException e) { // stack underflow
 			dlink = null;
 		}
+		declare(f.layout());
+	}
+
+	private void declare (Layout l) {
+		layout = l;
+		slots = new Value[l.size()];
+		arrays = new ArrayStorage[l.size()];
 		frame_state = new FrameState();
-		for (Declaration di : st.get_func_vars(frame_name)) {
+		for (int s = 0; s < l.size(); s++) {
+			Declaration di = l.declaration(s);
 			if (di instanceof VariableDecl)
-				frame_state.onion(di.v, Value.mkValue(di.t));
-			else if (di instanceof ArrayDecl) {
-				ArrayDecl ad = (ArrayDecl) di;
-				for(int i=0; i < ad.size.intValue(); i++) 
-					frame_state.onion(new ArrayRef(di.v.toString(), new IntValue(i)), Value.mkValue(di.t));
-			}
+				slots[s] = Value.mkValue(di.t);
+			else if (di instanceof ArrayDecl)
+				arrays[s] = new ArrayStorage((ArrayDecl) di);
 		}
-
 	}
 	
 	public StackFrame (String frame_name, StackFrame static_link, StackFrame dynamic_link, Declarations params, Declarations locals) {
 		name = frame_name;
 		slink = static_link; dlink = dynamic_link;
-		frame_state = new FrameState();
-		for (Declaration di : params) 
-			frame_state.onion(di.v, Value.mkValue(di.t));
-		for (Declaration di : locals) 
-			frame_state.onion(di.v, Value.mkValue(di.t));
+		declare(new Layout(params, locals));
 	}	
 
 	public StackFrame (String frame_name, StackFrame static_link, StackFrame dynamic_link) {
 		name = frame_name;
 		slink = static_link; dlink = dynamic_link;
-		frame_state = new FrameState();
+		declare(new Layout());
+	}
+
+	/* the value in a slot of this frame */
+	public Value get(int slot) {
+		return slots[slot];
+	}
+
+	/* sets a slot of this frame to val */
+	public StackFrame set(int slot, Value val) {
+		slots[slot] = val;
+		return this;
+	}
+
+	/* the elements of the array in a slot of this frame */
+	public ArrayStorage array(int slot) {
+		return arrays[slot];
+	}
+
+	/* whether var is declared in this frame */
+	private boolean declares(VariableRef var) {
+		int slot = layout.slot(var.id);
+		if (var instanceof ArrayRef)
+			return slot >= 0 && arrays[slot] != null;
+		return slot >= 0;
+	}
+
+	/* the element an ArrayRef with a Value for its index refers to */
+	private static int index(VariableRef var) {
+		return ((Value) ((ArrayRef) var).index).intValue();
 	}
 
 	public Value get(VariableRef var) {
-		if (frame_state.containsKey(var))
-			return frame_state.get(var);
-		else
+		if (!declares(var))
 			return slink.get(var);
+		if (var instanceof ArrayRef)
+			return arrays[layout.slot(var.id)].get(index(var));
+		return slots[layout.slot(var.id)];
 	}
 
 	/* sets the var to the val, if not found in current stack frame
@@ -74,7 +112,7 @@ public class StackFrame { // Activation Record
 	   To make Clite interpret the program with dynamic scoping, switch
 	   slink to dlink */
 	public StackFrame set(VariableRef var, Value val) {
-		if (frame_state.containsKey(var))
+		if (declares(var))
 			onion(var, val);
 		else
 			slink.onion(var, val);
@@ -95,17 +133,50 @@ public class StackFrame { // Activation Record
 	/* updates the StackFrames state given a VariableRef and Value
 	   returns a reference to the StackFrame (itself) */
 	public StackFrame onion (VariableRef var, Value val) {
-		frame_state.onion(var, val);
+		int slot = layout.slot(var.id);
+		if (var instanceof ArrayRef && slot >= 0 && arrays[slot] != null)
+			arrays[slot].set(index(var), val);
+		else if (var instanceof ArrayRef || slot < 0)
+			frame_state.onion(var, val);
+		else
+			slots[slot] = val;
 		return this;
 	}
 
 	/* updates the StackFrame's state given a StackFrame 
 	   returns a reference to the modified StackFrame (itself) */
 	public StackFrame onion (StackFrame st)  {
-		frame_state.onion(st.frame_state);
+		FrameState vars = st.vars();
+		for (VariableRef key : vars.keySet())
+			onion(key, vars.get(key));
 		return this;
 	}
 
+	/* the frame's variables and array elements in a FrameState keyed
+	   by name, as the frame used to hold them; display shows them in
+	   that HashMap's order, not in the order they were declared */
+	private FrameState vars( ) {
+		FrameState vars = new FrameState();
+		for (int s = 0; s < layout.size(); s++) {
+			Declaration di = layout.declaration(s);
+			if (di instanceof VariableDecl)
+				vars.onion(di.v, slots[s]);
+			else if (di instanceof ArrayDecl) {
+				for(int i=0; i < arrays[s].size; i++)
+					vars.onion(new ArrayRef(di.v.toString(), new IntValue(i)), arrays[s].get(i));
+			}
+		}
+		for (VariableRef key : frame_state.keySet())
+			if (!vars.containsKey(key))
+				vars.onion(key, frame_state.get(key));
+		return vars;
+	}
+
+	/* gets the function the StackFrame belongs to */
+	public Function get_func() {
+		return func;
+	}
+
 	/* gets the StackFrame's name */
 	public String get_name() {
 		return name;
@@ -113,7 +184,7 @@ public class StackFrame { // Activation Record
 
 	public void display( ) {
 		String tm = "Vars: { ";
-		Iterator it = frame_state.entrySet().iterator();
+		Iterator it = vars().entrySet().iterator();
 		while(it.hasNext()) {
 			tm += it.next() + " ,";
 		}
@@ -135,7 +206,7 @@ public class StackFrame { // Activation Record
 		String frame_name = "stk_frame name: " + name + "\n";
 
 		String tm = "Vars: { ";
-		Iterator it = frame_state.entrySet().iterator();
+		Iterator it = vars().entrySet().iterator();
 		while(it.hasNext()) {
 			tm += it.next() + " ,";
 		}
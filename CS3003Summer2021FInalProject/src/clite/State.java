@@ -39,6 +39,11 @@ public class State {
 		return this;
 	}
 
+	/* returns the function specified by id */
+	public Function get_func(String id) {
+		return text.get(id);
+	}
+
 	/* returns the parameters and locals of the function specified by
 	   id */
 	public Declarations get_func_vars(String id) {
@@ -56,6 +61,22 @@ public class State {
 		return stack.get_top().get(var);
 	}
 
+	/* Gets a resolved variable from its slot */
+	public Value get(ResolvedVariable var) {
+		return (var.global ? data : stack.get_top()).get(var.slot);
+	}
+
+	/* Sets a resolved variable's slot to val */
+	public State set(ResolvedVariable var, Value val) {
+		(var.global ? data : stack.get_top()).set(var.slot, val);
+		return this;
+	}
+
+	/* Gets the elements of a resolved array */
+	public ArrayStorage get_array(ResolvedArrayRef a) {
+		return (a.global ? data : stack.get_top()).array(a.slot);
+	}
+
 	/* Sets the closest variable matching var to val */
 	public State set(VariableRef var, Value val) {
 		StackFrame top = stack.get_top();
@@ -78,7 +99,7 @@ public class State {
 	   and sets the current function to the owner of the stack frame */
 	public State push(StackFrame stk_frm) {
 		stack = stack.push(stk_frm);
-		current_func = text.get(stk_frm.get_name());
+		current_func = stk_frm.get_func();
 		return this;
 	}
 
@@ -86,7 +107,7 @@ public class State {
 	public StackFrame pop( ) {
 		StackFrame below = stack.pop();
 		if (!stack.isEmpty())
-			current_func = text.get(below.get_dlink().get_name());
+			current_func = below.get_dlink().get_func();
 		else
 			current_func = null;
 		return below;
@@ -4,6 +4,7 @@ package clite;
 
 
 import java.util.*;
+import java.util.concurrent.*;
 
 // Static type checking for Clite is defined by the functions 
 // V and the auxiliary functions typing and typeOf.  These
@@ -19,13 +20,13 @@ public class StaticTypeCheck {
     // public static TypeMap typing(Declarations p, Declarations l)
 
     public static TypeMap typing (Declarations G, Functions F, Function f) {
-    	TypeMap map = new TypeMap();
-	for (Declaration di : G) {
-		map.put (di.v, di.t);
-	}
-	for (Function fi : F) {
-		map.put (new Variable(fi.id), new FunctionMap (fi.t, param_typing(fi.params)));
-	}
+	return typing (typing (G, F), f);
+    }
+
+    // f's params and locals, over the globals and functions in outer,
+    // which all of a program's functions can share
+    public static TypeMap typing (TypeMap outer, Function f) {
+    	TypeMap map = new TypeMap(outer);
 	for (Declaration pi : f.params) {
 		map.put (pi.v, pi.t);
 	}
@@ -42,15 +43,7 @@ public class StaticTypeCheck {
 		map.put (di.v, di.t);
 	}
 	for (Function fi : F) {
-		map.put (new Variable(fi.id), new FunctionMap (fi.t, param_typing(fi.params)));
-	}
-	return map;
-    }
-
-    public static FunctionTypeMap param_typing (Declarations d) {
-	FunctionTypeMap map = new FunctionTypeMap();
-	for (Declaration di : d) {
-	    map.put (di. v, di.t);
+		map.put (new Variable(fi.id), new FunctionMap (fi));
 	}
 	return map;
     }
@@ -63,57 +56,140 @@ public class StaticTypeCheck {
         return map;
     }
 
+    // Set on a parallelV worker, whose type errors must reach parallelV
+    // rather than end the program from under the other workers.
+    private static final ThreadLocal<Boolean> collecting =
+        ThreadLocal.withInitial(() -> false);
+
+    static class TypeError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TypeError (String msg) { super(msg); }
+    }
+
+    // Runs pass with type errors thrown back to here rather than ending
+    // the program, and returns the first one's message, or null.
+    static String collect (Runnable pass) {
+        boolean was = collecting.get();
+        collecting.set(true);
+        try {
+            pass.run();
+            return null;
+        } catch (TypeError e) {
+            return e.getMessage();
+        } finally {
+            collecting.set(was);
+        }
+    }
+
     public static void check(boolean test, String msg) {
         if (test)  return;
+        if (collecting.get())
+            throw new TypeError(msg);
         System.err.println(msg);
         System.exit(1);
     }
 
+    // As check, for a whole pass's errors at once: prints each, then exits
+    public static void check(ArrayList<String> errors) {
+        if (errors.isEmpty())  return;
+        if (collecting.get())
+            throw new TypeError(String.join("\n", errors));
+        for (String msg : errors)
+            System.err.println(msg);
+        System.exit(1);
+    }
+
+    // The name checks below make one pass with a HashSet of the names seen,
+    // and report every offending name rather than only the first.
+
     public static void V (Declarations d) {
-        for (int i=0; i<d.size() - 1; i++)
-            for (int j=i+1; j<d.size(); j++) {
-                Declaration di = d.get(i);
-                Declaration dj = d.get(j);
-                check( ! (di.v.equals(dj.v)),
-                       "duplicate global: " + dj.v);
-		check( ! (di.t.equals(Type.VOID)),
-		       "global with type void: " + di.v);
-		check( ! (dj.t.equals(Type.VOID)),
-		       "global with type void: " + dj.v);
-            }
+        ArrayList<String> errors = new ArrayList<String>();
+        names(d, errors);
+        check(errors);
     } 
 
     public static void V (Declarations G, Functions F) {
-    	for (int i=0; i<G.size(); i++)
-	    for (int j=0; j<F.size(); j++) {
-	    	Declaration Gi = G.get(i);
-		Function Fj = F.get(i);
-		check( !(Gi.v.equals(new Variable(Fj.id))),
-			"duplicate name: " + Fj.id);
-		}
+        ArrayList<String> errors = new ArrayList<String>();
+        names(G, F, errors);
+        check(errors);
     }
 
     public static void V (Functions F) {
-        for (int i=0; i<F.size() - 1; i++)
-            for (int j=i+1; j<F.size(); j++) {
-                Function Fi = F.get(i);
-                Function Fj = F.get(j);
-                check( ! (Fi.id.equals(Fj.id)),
-                       "duplicate function name: " + Fi);
-            }
+        ArrayList<String> errors = new ArrayList<String>();
+        names(F, errors);
+        check(errors);
     } 
 
+    private static void names (Declarations d, ArrayList<String> errors) {
+        HashSet<String> seen = new HashSet<String>();
+        for (Declaration di : d) {
+            if (! seen.add(di.v.id))
+                errors.add("duplicate global: " + di.v);
+            if (di.t.equals(Type.VOID))
+                errors.add("global with type void: " + di.v);
+        }
+    }
+
+    private static void names (Declarations G, Functions F, ArrayList<String> errors) {
+        HashSet<String> globals = new HashSet<String>();
+        for (Declaration Gi : G)
+            globals.add(Gi.v.id);
+        for (Function Fj : F)
+            if (globals.contains(Fj.id))
+                errors.add("duplicate name: " + Fj.id);
+    }
+
+    private static void names (Functions F, ArrayList<String> errors) {
+        HashSet<String> seen = new HashSet<String>();
+        for (Function Fi : F)
+            if (! seen.add(Fi.id))
+                errors.add("duplicate function name: " + Fi.id);
+    }
+
     public static void V (Program p) {
 	// Since the TypeMap is an extension of HashMap, strictly obeying the formalized type rules is erroneous. 
 	// Concrete syntax guarentees that the final function declared must be main, so that type checking has been omitted.
-	V (p.globals);
-	V (p.functions);
-        V (p.globals, p.functions);
+	names (p);
+	TypeMap outer = typing(p.globals, p.functions);
 	for(Function fi : p.functions) 
-		V(fi, typing(p.globals, p.functions, fi));
+		V(fi, typing(outer, fi));
     } 
 
+    /* Checks the same as V(Program), with the functions checked in
+       parallel on the ForkJoinPool.  The workers share the TypeMap of
+       globals and signatures, which nothing writes once it is built, and
+       each writes types only into its own function's nodes.  Rather than
+       stopping at the first error, the first error of every function is
+       reported, in program order. */
+    public static void parallelV (Program p) {
+	names (p);
+	TypeMap outer = typing(p.globals, p.functions);
+	ArrayList<ForkJoinTask<String>> tasks = new ArrayList<ForkJoinTask<String>>();
+	for (Function fi : p.functions)
+		tasks.add(ForkJoinTask.adapt(() -> collect(() -> V(fi, typing(outer, fi)))));
+	ArrayList<String> errors = new ArrayList<String>();
+	for (ForkJoinTask<String> task : ForkJoinTask.invokeAll(tasks))
+		if (task.join() != null)
+			errors.add(task.join());
+	check (errors);
+    }
+
+    static void names (Program p) {
+	ArrayList<String> errors = new ArrayList<String>();
+	names (p.globals, errors);
+	names (p.functions, errors);
+	names (p.globals, p.functions, errors);
+	check (errors);
+    }
+
     public static void V (Function f, TypeMap tm) {
+	heading(f);
+	V(f.body, tm);
+    }
+
+    // what V checks of a function besides its body
+    static void heading (Function f) {
 	Declarations params_and_locals = new Declarations();
 	for(int i=0; i<f.locals.size(); i++) {
 		params_and_locals.add(f.locals.get(i));
@@ -149,7 +225,6 @@ public class StaticTypeCheck {
 				"return statement in main");
 		}
 	}
-	V(f.body, tm);
     }
 
     public static Type typeOf (Expression e, TypeMap tm) {
@@ -165,22 +240,30 @@ public class StaticTypeCheck {
 	    check (tm.containsKey(key), "undefined arrayref: " + a);
 	    return (Type) tm.get(key);
 	}
+        // An operator's type is found once and kept in its node, so the
+        // repeated calls from V and TypeTransformer.T stay linear however
+        // deep the expression.  Nodes are never shared between functions,
+        // so the TypeMap is always the same one.
         if (e instanceof Binary) {
             Binary b = (Binary)e;
+            if (b.type != null)
+                return b.type;
             if (b.op.ArithmeticOp( ))
                 if (typeOf(b.term1,tm)== Type.FLOAT || typeOf(b.term2,tm)== Type.FLOAT)
-                    return (Type.FLOAT);
-                else return (Type.INT);
+                    return b.type = Type.FLOAT;
+                else return b.type = Type.INT;
             if (b.op.RelationalOp( ) || b.op.BooleanOp( )) 
-                return (Type.BOOL);
+                return b.type = Type.BOOL;
         }
         if (e instanceof Unary) {
             Unary u = (Unary)e;
-            if (u.op.NotOp( ))        return (Type.BOOL);
-            else if (u.op.NegateOp( )) return typeOf(u.term,tm);
-            else if (u.op.intOp( ))    return (Type.INT);
-            else if (u.op.floatOp( )) return (Type.FLOAT);
-            else if (u.op.charOp( ))  return (Type.CHAR);
+            if (u.type != null)
+                return u.type;
+            if (u.op.NotOp( ))        return u.type = Type.BOOL;
+            else if (u.op.NegateOp( )) return u.type = typeOf(u.term,tm);
+            else if (u.op.intOp( ))    return u.type = Type.INT;
+            else if (u.op.floatOp( )) return u.type = Type.FLOAT;
+            else if (u.op.charOp( ))  return u.type = Type.CHAR;
         } if (e instanceof CallExpression) {
 	    CallExpression c = (CallExpression) e;
 	    FunctionMap fm = (FunctionMap) tm.get(new Variable(c.name));
@@ -189,22 +272,135 @@ public class StaticTypeCheck {
         throw new IllegalArgumentException("should never reach here");
     } 
 
+    // The rules V checks each kind of node against, given the types
+    // typeOf has found for its parts; CheckingTransformer checks them too.
+
+    static void declared (VariableRef v, TypeMap tm) {
+	Variable key = v instanceof ArrayRef ? new Variable(v.id) : (Variable) v;
+	check( tm.containsKey(key)
+	       , "undeclared variable: " + v);
+    }
+
+    static void index (ArrayRef a, Type typ) {
+	check ( typ == Type.INT
+		, " non-int expression as index for " + a);
+    }
+
+    static void binary (Operator op, Type typ1, Type typ2) {
+	if (op.ArithmeticOp( )) {
+		boolean mixed = (typ1 == Type.FLOAT && typ2 == Type.INT)
+		             || (typ1 == Type.INT && typ2 == Type.FLOAT);
+		if (! mixed)
+			check( typ1 == typ2 &&
+			       (typ1 == Type.INT || typ1 == Type.FLOAT)
+			       , "type error for " + op);
+	} else if (op.RelationalOp( ))
+		check( typ1 == typ2 , "type error for " + op);
+	else if (op.BooleanOp( ))
+		check( typ1 == Type.BOOL && typ2 == Type.BOOL,
+		       op + ": non-bool operand");
+	else
+		throw new IllegalArgumentException("should never reach here");
+    }
+
+    static void unary (Operator op, Type typ) {
+	if (op.NotOp( ))
+		check( typ == Type.BOOL, op + ": non-bool operand");
+	else if (op.NegateOp( ))
+		check( typ == Type.INT || typ == Type.FLOAT, "type error for " + op);
+	else if (op.intOp( ) || op.floatOp( ) || op.charOp( ))
+		check( typ != Type.BOOL, op + ": bool operand");
+	else
+		throw new IllegalArgumentException("should never reach here");
+    }
+
+    // the variable an assignment's target names, once it is declared
+    static Variable target (Assignment a, TypeMap tm) {
+	Variable target;
+	if (a.target instanceof ArrayRef) {
+		target = new Variable(a.target.id);
+	}
+	else {
+		target = (Variable) a.target;
+	}
+	check( tm.containsKey(target)
+	       , " undefined variable target in assignment: " + a.target);
+	return target;
+    }
+
+    static void assignment (Variable target, Type ttype, Type srctype) {
+	if (ttype != srctype) {
+		if (ttype == Type.FLOAT)
+			check( srctype == Type.INT
+			       , "mixed mode assignment to " + target);
+		else if (ttype == Type.INT)
+			check( srctype == Type.CHAR
+			       , "mixed mode assignment to " + target);
+		else
+			check( false
+			       , "mixed mode assignment to " + target);
+	}
+    }
+
+    // for the test of a Conditional or Loop
+    static void test (Expression test, Type ttype) {
+	check( ttype == Type.BOOL, "test expression not of type bool: " + test);
+    }
+
+    // the signature of the function a call expression calls, once it is
+    // known to be a non-void function given as many arguments as it takes
+    static Signature call (CallExpression c, TypeMap tm) {
+	FunctionMap fm = callee(c, c.name, tm);
+	check( ! fm.getType().equals(Type.VOID), "call expression " + c + " to void function");
+	return arity(c.name, fm.getSignature(), c.args);
+    }
+
+    // the same for a call statement, whose function must be void
+    static Signature call (CallStatement c, TypeMap tm) {
+	FunctionMap fm = callee(c, c.name, tm);
+	check( fm.getType().equals(Type.VOID), "call statement " + c + "to non-void function");
+	return arity(c.name, fm.getSignature(), c.args);
+    }
+
+    private static FunctionMap callee (Object c, String name, TypeMap tm) {
+	//Looking for typemap associated with call's name
+	Object o = tm.get(new Variable(name));
+	check ( o != null, "Call " + c + " references non-existent function");
+	return (FunctionMap) o;
+    }
+
+    private static Signature arity (String name, Signature sig, Expressions args) {
+	if (sig.arity() < args.size())
+		check(false, "too many arguments supplied to function " + name);
+	else if (sig.arity() > args.size())
+		check(false, "too little arguments supplied to function " + name);
+	return sig;
+    }
+
+    // for an argument of type typ passed to a parameter of type param
+    static void argument (String name, Type param, Type typ) {
+	if (param.equals(Type.FLOAT)) {
+		check((typ == Type.FLOAT) ||
+		      (typ == Type.INT),
+		"argument passed to function " + name + "not coercible to type float");
+	}
+	else {
+		check(typ.equals(param),
+		"argument passed to function " + name + "not coercible to type " + param);
+	}
+    }
+
     public static void V (Expression e, TypeMap tm) {
         if (e instanceof Value) 
             return;
 	if (e instanceof ArrayRef) {
 	    ArrayRef a = (ArrayRef)e;
-	    check( tm.containsKey(new Variable(a.id))
-		   , "undeclared variable: " + a);
-	    Type typ = typeOf(a.index, tm);
-	    check ( typ == Type.INT
-		    , " non-int expression as index for " + a);
+	    declared(a, tm);
+	    index(a, typeOf(a.index, tm));
 	    return;
 	}
         if (e instanceof Variable) { 
-            Variable v = (Variable)e;
-            check( tm.containsKey(v)
-                   , "undeclared variable: " + v);
+            declared((Variable) e, tm);
             return;
         }
 	if (e instanceof Binary) {
@@ -213,22 +409,7 @@ public class StaticTypeCheck {
             Type typ2 = typeOf(b.term2, tm);
             V (b.term1, tm);
             V (b.term2, tm);
-            if (b.op.ArithmeticOp( )) {
-		if (typ1 == Type.FLOAT && typ2 == Type.INT) 
-			check( true, "should never reach here");
-		else if (typ1 == Type.INT && typ2 == Type.FLOAT)		
-			check( true, "should never reach here");
-		else
-                	check( typ1 == typ2 &&
-                       		(typ1 == Type.INT || typ1 == Type.FLOAT)
-                       		, "type error for " + b.op);
-            } else if (b.op.RelationalOp( )) 
-                check( typ1 == typ2 , "type error for " + b.op);
-            else if (b.op.BooleanOp( )) 
-                check( typ1 == Type.BOOL && typ2 == Type.BOOL,
-                       b.op + ": non-bool operand");
-	    else
-                throw new IllegalArgumentException("should never reach here");
+            binary(b.op, typ1, typ2);
             return;
         }
         // student exercise Unary
@@ -237,80 +418,32 @@ public class StaticTypeCheck {
 	    Unary u = (Unary) e;
 	    Type typ = typeOf(u.term, tm); 
 	    V (u.term, tm);
-	    if (u.op.NotOp( ))
-		check( typ == Type.BOOL, u.op + ": non-bool operand");
-	    else if (u.op.NegateOp( ))
-		check( typ == Type.INT || typ == Type.FLOAT, "type error for " + u.op);
-	    else if (u.op.intOp( ) || u.op.floatOp( ) || u.op.charOp( ))
-		check( typ != Type.BOOL, u.op + ": bool operand");
-	    else
-		throw new IllegalArgumentException("should never reach here");
+	    unary(u.op, typ);
 	    return;
 	} 
 	if (e instanceof CallExpression) {
 		CallExpression c = (CallExpression) e;
-		//Looking for typemap associated with call's name
-		Object o = tm.get(new Variable(c.name));
-		check ( o != null, "Call " + c + " references non-existent function");
-
-		FunctionMap fm = (FunctionMap) o; 
-		check( ! fm.getType().equals(Type.VOID), "call expression " + c + " to void function");
-		FunctionTypeMap called_params = (FunctionTypeMap) fm.getParams();
-
-		ArrayList<Type> param_types = called_params.typeArray(); 
-
-		if (param_types.size() < c.args.size())
-			check(param_types.size() == c.args.size(), "too many arguments supplied to function " + c.name);
-		else if (param_types.size() > c.args.size())
-			check(param_types.size() == c.args.size(), "too little arguments supplied to function " + c.name);
-		
-		// at this point it is guaranteed that the correct number of arguments have been supplied
-		for (int i=0; i<c.args.size(); i++) {
-			Type current_arg_type = typeOf(c.args.get(i), tm);
-			if (param_types.get(i).equals(Type.FLOAT)) {
-				check((current_arg_type == Type.FLOAT) ||
-					(current_arg_type  == Type.INT), 
-				"argument passed to function " + c.name + "not coercible to type float");	
-			}
-			else {
-				check(current_arg_type.equals(param_types.get(i)), 
-				"argument passed to function " + c.name + "not coercible to type " + param_types.get(i));
-			}
-		} 
+		arguments(c.name, call(c, tm), c.args, tm);
 		return;
 	}
         throw new IllegalArgumentException("should never reach here");
     }
 
+    // at this point it is guaranteed that the correct number of arguments have been supplied
+    private static void arguments (String name, Signature sig, Expressions args, TypeMap tm) {
+	for (int i=0; i<args.size(); i++)
+		argument(name, sig.param(i), typeOf(args.get(i), tm));
+    }
+
     public static void V (Statement s, TypeMap tm) {
         if ( s == null )
             throw new IllegalArgumentException( "AST error: null statement");
         else if (s instanceof Skip) return;
         else if (s instanceof Assignment) {
             Assignment a = (Assignment)s;
-	    Variable target;
-	    if (a.target instanceof ArrayRef) {
-	    	target = new Variable(a.target.id);
-	    }
-	    else { 
-	        target = (Variable) a.target;
-	    }
-	    check( tm.containsKey(target)
-		   , " undefined variable target in assignment: " + a.target);
+	    Variable target = target(a, tm);
             V(a.source, tm);
-            Type ttype = (Type)tm.get(target);
-            Type srctype = typeOf(a.source, tm);
-            if (ttype != srctype) {
-                if (ttype == Type.FLOAT)
-                    check( srctype == Type.INT
-                           , "mixed mode assignment to " + target);
-                else if (ttype == Type.INT)
-                    check( srctype == Type.CHAR
-                           , "mixed mode assignment to " + target);
-                else
-                    check( false
-                           , "mixed mode assignment to " + target);
-            }
+            assignment(target, (Type)tm.get(target), typeOf(a.source, tm));
             return;
         } 
 	// student exercise
@@ -319,16 +452,14 @@ public class StaticTypeCheck {
 	    V(c.test, tm);
 	    V(c.thenbranch, tm);
 	    V(c.elsebranch, tm);
-	    Type ttype = typeOf(c.test, tm);
-	    check( ttype == Type.BOOL, "test expression not of type bool: " + c.test);
+	    test(c.test, typeOf(c.test, tm));
 	    return;
 	}
 	if (s instanceof Loop) {
 	    Loop l = (Loop) s;
 	    V(l.test, tm);
 	    V(l.body, tm);
-	    Type ttype = typeOf(l.test, tm);
-	    check(ttype == Type.BOOL, "test expression not of type bool: " + l.test);	
+	    test(l.test, typeOf(l.test, tm));
 	    return;
 	}
 	if (s instanceof Block) {
@@ -339,35 +470,7 @@ public class StaticTypeCheck {
 	}
 	if (s instanceof CallStatement) {
 		CallStatement c = (CallStatement) s;
-		//Looking for typemap associated with call's name
-		Object o = tm.get(new Variable(c.name));
-		check ( o != null, "Call " + c + " references non-existent function");
-		
-		FunctionMap fm = (FunctionMap) o; 
-		check( fm.getType().equals(Type.VOID), "call statement " + c + "to non-void function");
-
-		FunctionTypeMap called_params = (FunctionTypeMap) fm.getParams();
-
-		ArrayList<Type> param_types = called_params.typeArray(); 
-
-		if (param_types.size() < c.args.size())
-			check(param_types.size() == c.args.size(), "too many arguments supplied to function " + c.name);
-		else if (param_types.size() > c.args.size())
-			check(param_types.size() == c.args.size(), "too little arguments supplied to function " + c.name);
-		
-		// at this point it is guaranteed that the correct number of arguments have been supplied
-		for (int i=0; i<c.args.size(); i++) {
-			Type current_arg_type = typeOf(c.args.get(i), tm);
-			if (param_types.get(i).equals(Type.FLOAT)) {
-				check((current_arg_type == Type.FLOAT) ||
-					(current_arg_type  == Type.INT), 
-				"argument passed to function " + c.name + "not coercible to type float");	
-			}
-			else {
-				check(current_arg_type.equals(param_types.get(i)), 
-				"argument passed to function " + c.name + "not coercible to type " + param_types.get(i));
-			}
-		} 
+		arguments(c.name, call(c, tm), c.args, tm);
 		return;
 	} 
 	if (s instanceof Return) 
@@ -2,12 +2,12 @@
 package clite;
 
 
-public class Token {
+import java.nio.ByteBuffer;
 
-    private static final int KEYWORDS = TokenType.Eof.ordinal();
+public class Token {
 
-    private static final String[] reserved = new String[KEYWORDS];
-    private static Token[] token = new Token[KEYWORDS];
+    // the shared token of every type that is not a literal or identifier
+    private static final Token[] fixed = new Token[TokenType.Identifier.ordinal()];
 
     public static final Token eofTok = new Token(TokenType.Eof, "<<EOF>>");
     public static final Token boolTok = new Token(TokenType.Bool, "bool");
@@ -48,55 +48,170 @@ public class Token {
     public static final Token andTok = new Token(TokenType.And, "&&");
     public static final Token orTok = new Token(TokenType.Or, "||");
 
-    private TokenType type;
+    // literal caches, filled in up front so lexers on any thread can share them
+    private static final Token[] chars = new Token[256];
+    private static final Token[] ints = new Token[1024];
+    static {
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = mkLiteral(TokenType.CharLiteral, i);
+        for (int i = 0; i < ints.length; i++)
+            ints[i] = mkLiteral(TokenType.IntLiteral, i);
+    }
+
+    private final TokenType type;
     private String value = "";
+    // value of an int, float, double or char literal; for an identifier,
+    // the serial number its IdentTable gave it
+    private double number;
+    // where a literal was spelled, when its spelling is not the text
+    // value() would make of its number: the line String or the mapped
+    // source it was read from, with its offset there and its length
+    private Object source;
+    private int from, length;
 
     private Token (TokenType t, String v) {
         type = t;
         value = v;
-        if (t.compareTo(TokenType.Eof) < 0) // If t is a reserved word and type 
-	{ 
-            int ti = t.ordinal();
-            reserved[ti] = v;
-            token[ti] = this;
-        }
+        if (t.compareTo(TokenType.Identifier) < 0)
+            fixed[t.ordinal()] = this;
     }
 
     public TokenType type( ) { return type; }
 
-    public String value( ) { return value; }
+    public String value( ) {
+        if (value == null && source != null) // as it was spelled
+            value = source instanceof String
+                  ? ((String) source).substring(from, from + length)
+                  : latin1((ByteBuffer) source, from, length);
+        if (value == null) // literal converted by the lexer
+            value = type == TokenType.IntLiteral ? Integer.toString(intValue())
+                  : type == TokenType.FloatLiteral ? Float.toString(floatValue())
+                  : type == TokenType.CharLiteral ? String.valueOf(charValue())
+                  : Double.toString(number);
+        return value;
+    }
+
+    private static String latin1 (ByteBuffer src, int from, int length) {
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++)
+            text[i] = (char) (src.get(from + i) & 0xff);
+        return new String(text);
+    }
+
+    public int intValue( ) { return (int) number; }
+
+    public float floatValue( ) { return (float) number; }
+
+    public double doubleValue( ) { return number; }
+
+    public char charValue( ) { return (char) number; }
 
     public static Token keyword  ( String name ) {
-        char ch = name.charAt(0);
-        if (ch >= 'A' && ch <= 'Z') return mkIdentTok(name);
-        for (int i = 0; i < KEYWORDS; i++)
-           if (name.equals(reserved[i]))  return token[i];
-        return mkIdentTok(name);
+        Token t = reserved(name.toCharArray(), name.length());
+        return t != null ? t : mkIdentTok(name);
     } // keyword
 
+    /* returns the keyword token spelled by the first len chars of s,
+       or null if they are not a reserved word */
+    public static Token reserved ( char[] s, int len ) {
+        // The first letter and the length pick out at most one keyword,
+        // so only that one spelling is compared.
+        Token t;
+        switch (s[0]) {
+        case 'b': t = boolTok; break;
+        case 'c': t = charTok; break;
+        case 'd': t = doubleTok; break;
+        case 'e': t = elseTok; break;
+        case 'f': t = len > 1 && s[1] == 'a' ? falseTok : floatTok; break;
+        case 'i': t = len == 2 ? ifTok : intTok; break;
+        case 'm': t = mainTok; break;
+        case 'p': t = printTok; break;
+        case 'r': t = returnTok; break;
+        case 't': t = trueTok; break;
+        case 'v': t = voidTok; break;
+        case 'w': t = whileTok; break;
+        default: return null;
+        }
+        if (t.value.length() != len)
+            return null;
+        for (int i = 1; i < len; i++)
+            if (t.value.charAt(i) != s[i])
+                return null;
+        return t;
+    } // reserved
+
+    /* returns the shared token for a type that is not a literal or identifier */
+    public static Token fixed (TokenType t) {
+        return fixed[t.ordinal()];
+    }
+
     public static Token mkIdentTok (String name) {
         return new Token(TokenType.Identifier, name);
     }
 
-    public static Token mkIntLiteral (String name) {
-        return new Token(TokenType.IntLiteral, name);
+    static Token mkIdentTok (String name, int serial) {
+        Token tok = new Token(TokenType.Identifier, name);
+        tok.number = serial;
+        return tok;
+    }
+
+    private static Token mkLiteral (TokenType t, double number) {
+        Token tok = new Token(t, null);
+        tok.number = number;
+        return tok;
+    }
+
+    public static Token mkIntLiteral (int value) {
+        if (value >= 0 && value < ints.length)
+            return ints[value];
+        return mkLiteral(TokenType.IntLiteral, value);
+    }
+
+    /* an int literal spelled in source, a line String or a mapped
+       ByteBuffer, at [from, from + length); only one spelled with
+       leading zeros needs the span kept */
+    static Token mkIntLiteral (int value, Object source, int from, int length) {
+        if (length == 1 || spelled(source, from) != '0')
+            return mkIntLiteral(value);
+        return spelledLiteral(TokenType.IntLiteral, value, source, from, length);
+    }
+
+    /* the same for a float literal, whose spelling is always kept */
+    static Token mkFloatLiteral (float value, Object source, int from, int length) {
+        return spelledLiteral(TokenType.FloatLiteral, value, source, from, length);
+    }
+
+    private static char spelled (Object source, int at) {
+        return source instanceof String ? ((String) source).charAt(at)
+             : (char) (((ByteBuffer) source).get(at) & 0xff);
+    }
+
+    private static Token spelledLiteral (TokenType t, double number, Object source,
+                                         int from, int length) {
+        Token tok = mkLiteral(t, number);
+        tok.source = source;
+        tok.from = from;
+        tok.length = length;
+        return tok;
     }
 
-    public static Token mkDoubleLiteral (String name) {
-        return new Token(TokenType.DoubleLiteral, name);
+    public static Token mkDoubleLiteral (double value) {
+        return mkLiteral(TokenType.DoubleLiteral, value);
     }
     
-    public static Token mkFloatLiteral (String name) {
-        return new Token(TokenType.FloatLiteral, name);
+    public static Token mkFloatLiteral (float value) {
+        return mkLiteral(TokenType.FloatLiteral, value);
     }
 
-    public static Token mkCharLiteral (String name) {
-        return new Token(TokenType.CharLiteral, name);
+    public static Token mkCharLiteral (char value) {
+        if (value >= chars.length)
+            return mkLiteral(TokenType.CharLiteral, value);
+        return chars[value];
     }
 
     public String toString ( ) {
         if (type.compareTo(TokenType.Identifier) < 0) return value;
-        return type + "\t" + value;
+        return type + "\t" + value();
     } // toString
 
     public static void main (String[] args) {
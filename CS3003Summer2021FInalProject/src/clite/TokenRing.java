@@ -0,0 +1,108 @@
+// Pipelined token source
+package clite;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Runs a Lexer on its own thread, ahead of the Parser, and hands its
+   tokens over through a bounded single-producer/single-consumer ring.
+   Neither side takes a lock: the producer publishes a slot by advancing
+   head, and the consumer frees it by advancing tail.
+
+   A lexical error does not exit on the lexer thread; it is passed down
+   the ring and reported when the Parser reaches it, as it would be
+   with the Lexer read directly.  Anything else the lexer thread throws
+   is passed down the same way, so the Parser reports it and exits
+   rather than waiting for a token that never comes. */
+
+public class TokenRing implements TokenSource {
+
+	private static final int SPINS = 100; // busy waits before yielding
+
+	private final Token[] tokens;
+	private final int[] lines, cols;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong(); // slots written
+	private final AtomicLong tail = new AtomicLong(); // slots read
+	private volatile String error;       // report of a lexical error or other failure
+	private long next = 0;               // consumer's next slot
+	private long written = 0;            // consumer's last look at head
+	private int lineno, col;             // of the last token read
+	private boolean atEof = false;
+
+	public TokenRing (Lexer lexer) {
+		this(lexer, 1 << 12);
+	}
+
+	/* capacity must be a power of two */
+	public TokenRing (Lexer lexer, int capacity) {
+		tokens = new Token[capacity];
+		lines = new int[capacity];
+		cols = new int[capacity];
+		mask = capacity - 1;
+		lexer.fatal = false;
+		Thread producer = new Thread(() -> produce(lexer), "lexer");
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	private void produce(Lexer lexer) {
+		long h = 0, free = 0;
+		Token t;
+		do {
+			try {
+				t = lexer.next();
+			} catch (IllegalArgumentException e) {
+				error = e.getMessage();
+				t = null;
+			} catch (Throwable e) { // a bug or an exhausted VM
+				error = "lexer thread failed: " + e;
+				t = null;
+			}
+			for (int spins = 0; h == free; spins++) {
+				free = tail.get() + tokens.length;
+				if (h == free)
+					pause(spins);
+			}
+			int i = (int) h & mask;
+			tokens[i] = t;
+			if (t != null) {
+				lines[i] = lexer.get_lineno();
+				cols[i] = lexer.get_col();
+			}
+			head.lazySet(++h);
+		} while (t != null && t != Token.eofTok);
+	}
+
+	public Token next( ) {
+		if (atEof)
+			return Token.eofTok; // stay on the end of file token
+		for (int spins = 0; next == written; spins++) {
+			written = head.get();
+			if (next == written)
+				pause(spins);
+		}
+		int i = (int) next & mask;
+		Token t = tokens[i];
+		if (t == null) {
+			System.err.println(error);
+			System.exit(1);
+		}
+		lineno = lines[i];
+		col = cols[i];
+		tail.lazySet(++next);
+		atEof = t == Token.eofTok;
+		return t;
+	}
+
+	private static void pause(int spins) {
+		if (spins < SPINS)
+			Thread.onSpinWait();
+		else
+			Thread.yield();
+	}
+
+	public int get_lineno( ) { return lineno; }
+
+	public int get_col( ) { return col; }
+}
@@ -0,0 +1,15 @@
+// Token input for the Parser
+package clite;
+
+
+/* Anything the Parser can pull tokens from: the Lexer itself, or a
+   cursor over a TokenStream. */
+
+public interface TokenSource {
+
+    public Token next( );     // Return next token
+
+    public int get_lineno( ); // where the source stood after the last
+                              // token, for error messages
+    public int get_col( );
+}
@@ -0,0 +1,332 @@
+// Packed, columnar token stream
+package clite;
+
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/* The tokens of a whole source file, held in one flat int array instead
+   of as Token objects.  Each token takes STRIDE ints:
+
+       KIND    type ordinal << 24 | length in the source
+       START   source offset of the token
+       LINE    Lexer.get_lineno() just after the token was read
+       COL     Lexer.get_col() just after the token was read
+       VALUE   int literal value, float literal bits, char literal code,
+               identifier serial number or index into wide
+
+   The source is the lexer's memory-mapped file, which a literal's
+   START and length spell out again when its Token is made.
+
+   A Cursor hands the tokens back to the Parser one at a time.  A lexical
+   error ends the stream, and is reported when a cursor reaches it, just
+   where Lexer.next() would have reported it.
+
+   lexParallel builds the same stream on the ForkJoinPool. */
+
+public class TokenStream {
+
+    static final int STRIDE = 5;
+    static final int KIND = 0, START = 1, LINE = 2, COL = 3, VALUE = 4;
+    private static final int MAX_LENGTH = (1 << 24) - 1;
+    private static final TokenType[] types = TokenType.values();
+
+    private int[] data = new int[STRIDE << 12];
+    private int size = 0;                      // number of tokens
+    private Token[] names;                     // identifiers, by serial number
+    private ArrayList<Token> wide = new ArrayList<Token>(); // double literals
+    private String error;                      // lexical error after the last token
+    private ByteBuffer source;                 // the mapped source file
+
+    private TokenStream ( ) { }
+
+    /* drains lexer, which must be memory-mapped, up to and including
+       the end of file token */
+    public TokenStream (Lexer lexer) {
+        if (lexer.source() == null)
+            throw new IllegalArgumentException("TokenStream needs a memory-mapped Lexer");
+        source = lexer.source();
+        Token t;
+        lexer.fatal = false;
+        try {
+            do {
+                t = lexer.next();
+                add(t, lexer.get_start(), lexer.get_length(),
+                    lexer.get_lineno(), lexer.get_col());
+            } while (t != Token.eofTok);
+        } catch (IllegalArgumentException e) {
+            error = e.getMessage();
+        }
+        IdentTable idents = lexer.get_idents();
+        names = new Token[idents.size()];
+        for (int i = 0; i < names.length; i++)
+            names[i] = idents.get(i);
+    }
+
+    private void add(Token t, int start, int length, int line, int col) {
+        if (length > MAX_LENGTH)
+            throw new IllegalArgumentException("token too long at offset " + start);
+        if (data.length < (size + 1) * STRIDE)
+            data = Arrays.copyOf(data, data.length * 2);
+        int value = 0;
+        switch (t.type()) {
+        case IntLiteral: case CharLiteral: case Identifier:
+            value = t.intValue();
+            break;
+        case FloatLiteral:
+            value = Float.floatToRawIntBits(t.floatValue());
+            break;
+        case DoubleLiteral:
+            value = wide.size();
+            wide.add(t);
+            break;
+        default:
+            break;
+        }
+        int i = size++ * STRIDE;
+        data[i + KIND] = t.type().ordinal() << 24 | length;
+        data[i + START] = start;
+        data[i + LINE] = line;
+        data[i + COL] = col;
+        data[i + VALUE] = value;
+    }
+
+    /* The file is cut into chunks at line starts, and each chunk is lexed
+       by its own Lexer on the ForkJoinPool.  A line start is never inside
+       a // comment, since comments end at the newline, and never inside
+       an identifier, number or operator.  A char literal is the one token
+       that can hold a newline; if one straddles a cut, or a chunk fails,
+       the chunk does not begin where the chunk before it stopped, and it
+       is lexed again by carrying on with the previous chunk's lexer.
+       The chunks are stitched back in order, with line numbers shifted
+       and identifiers renumbered as if one Lexer had read the file. */
+    public static TokenStream lexParallel (String fileName) {
+        long size = new File(fileName).length();
+        return lexParallel(fileName, (int) Math.min(
+            ForkJoinPool.getCommonPoolParallelism() * 4, size / CHUNK_MIN));
+    }
+
+    /* lexes fileName in about n chunks */
+    static TokenStream lexParallel (String fileName, int n) {
+        Lexer whole = new Lexer(fileName, true);
+        ByteBuffer src = whole.source();
+        int limit = src.limit();
+        n = Math.max(1, Math.min(n, limit));
+        ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+        int from = 0;
+        for (int k = 1; k <= n; k++) {
+            int to = k == n ? limit : (int) ((long) limit * k / n);
+            while (to < limit && src.get(to - 1) != '\n')
+                to++;
+            if (to > from) {
+                chunks.add(new Chunk(whole, from, to));
+                from = to;
+            }
+        }
+        if (chunks.isEmpty()) // empty file
+            chunks.add(new Chunk(whole, 0, 0));
+        ForkJoinTask.invokeAll(chunks);
+
+        TokenStream out = new TokenStream();
+        out.source = src;
+        IdentTable idents = new IdentTable();
+        IdentityHashMap<IdentTable, int[]> serials = new IdentityHashMap<IdentTable, int[]>();
+        int lines = 0; // lines before the current chunk
+        Chunk prev = null;
+        for (Chunk c : chunks) {
+            c.lineBase = lines;
+            if (c.failed || prev != null && c.first() != prev.pendingStart)
+                c.relex(prev);
+            lines += c.newlines;
+            out.append(c, renumber(idents, serials, c.lexer.get_idents()));
+            if (c.error != null) {
+                out.error = c.error;
+                break;
+            }
+            prev = c;
+        }
+        out.names = new Token[idents.size()];
+        for (int i = 0; i < out.names.length; i++)
+            out.names[i] = idents.get(i);
+        return out;
+    }
+
+    private static final int CHUNK_MIN = 1 << 20; // bytes
+
+    /* maps the serial numbers of table onto those of idents, interning
+       any names of table not yet seen */
+    private static int[] renumber(IdentTable idents, IdentityHashMap<IdentTable, int[]> serials,
+                                  IdentTable table) {
+        int[] map = serials.get(table);
+        int done = map == null ? 0 : map.length;
+        if (done == table.size())
+            return map;
+        map = map == null ? new int[table.size()] : Arrays.copyOf(map, table.size());
+        for (int i = done; i < map.length; i++) {
+            String name = table.get(i).value();
+            map[i] = idents.intern(name.toCharArray(), name.length()).intValue();
+        }
+        serials.put(table, map);
+        return map;
+    }
+
+    private void append(Chunk c, int[] serial) {
+        TokenStream part = c.tokens;
+        if (data.length < (size + part.size) * STRIDE)
+            data = Arrays.copyOf(data, Math.max(data.length * 2, (size + part.size) * STRIDE));
+        for (int j = 0; j < part.size; j++) {
+            int from = j * STRIDE, to = size++ * STRIDE;
+            System.arraycopy(part.data, from, data, to, STRIDE);
+            data[to + LINE] += c.lineBase;
+            TokenType t = part.type(j);
+            if (t == TokenType.Identifier)
+                data[to + VALUE] = serial[data[to + VALUE]];
+            else if (t == TokenType.DoubleLiteral) {
+                data[to + VALUE] = wide.size();
+                wide.add(part.wide.get(part.data[from + VALUE]));
+            }
+        }
+    }
+
+    /* the tokens that start in [from, to) of the source */
+    private static class Chunk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final int from, to;
+        Lexer lexer;
+        TokenStream tokens = new TokenStream();
+        boolean failed = false;  // lexing the chunk on its own failed
+        String error;            // lexing it in sequence failed
+        int newlines = 0;        // in [from, to)
+        int lineBase;            // lines before the lexer's line 1
+        // the token read past the end of the chunk, i.e. the next chunk's first
+        Token pending;
+        int pendingStart = -1, pendingLength, pendingLine, pendingCol;
+
+        Chunk (Lexer whole, int from, int to) {
+            this.from = from; this.to = to;
+            lexer = new Lexer(whole, from);
+            lexer.fatal = false;
+        }
+
+        protected void compute( ) {
+            ByteBuffer src = lexer.source();
+            for (int i = from; i < to; i++)
+                if (src.get(i) == '\n')
+                    newlines++;
+            try {
+                lex();
+            } catch (IllegalArgumentException e) { // a lexical error
+                failed = true;
+            }
+        }
+
+        private void lex( ) {
+            Token t;
+            do {
+                t = lexer.next();
+                if (t != Token.eofTok && lexer.get_start() >= to) {
+                    pending = t;
+                    pendingStart = lexer.get_start();
+                    pendingLength = lexer.get_length();
+                    pendingLine = lexer.get_lineno();
+                    pendingCol = lexer.get_col();
+                    return;
+                }
+                tokens.add(t, lexer.get_start(), lexer.get_length(),
+                           lexer.get_lineno(), lexer.get_col());
+            } while (t != Token.eofTok);
+        }
+
+        /* start of the first token of the chunk */
+        int first( ) {
+            return tokens.size > 0 ? tokens.start(0) : pendingStart;
+        }
+
+        /* lexes the chunk again, carrying on from where prev stopped,
+           or from the top of the file for the first chunk */
+        void relex(Chunk prev) {
+            tokens = new TokenStream();
+            pending = null;
+            pendingStart = -1;
+            if (prev == null) {
+                lexer = new Lexer(lexer, from);
+                lexer.fatal = false;
+            } else {
+                lexer = prev.lexer;
+                lexer.rebase(prev.lineBase); // its line numbers become absolute
+                lineBase = 0;
+                tokens.add(prev.pending, prev.pendingStart, prev.pendingLength,
+                           prev.pendingLine + prev.lineBase, prev.pendingCol);
+            }
+            try {
+                lex();
+            } catch (IllegalArgumentException e) {
+                error = e.getMessage();
+            }
+        }
+    }
+
+    public int size( ) { return size; }
+
+    /* whether a lexical error ends the stream */
+    public boolean hasError( ) { return error != null; }
+
+    public TokenType type(int i) { return types[data[i * STRIDE + KIND] >>> 24]; }
+
+    public int start(int i) { return data[i * STRIDE + START]; }
+
+    public int length(int i) { return data[i * STRIDE + KIND] & MAX_LENGTH; }
+
+    public int line(int i) { return data[i * STRIDE + LINE]; }
+
+    public int col(int i) { return data[i * STRIDE + COL]; }
+
+    /* returns token i; only literals other than small ints and chars
+       need a new Token object, and ints only when spelled with leading
+       zeros */
+    public Token token(int i) {
+        int value = data[i * STRIDE + VALUE];
+        TokenType t = type(i);
+        switch (t) {
+        case Identifier: return names[value];
+        case IntLiteral: return Token.mkIntLiteral(value, source, start(i), length(i));
+        case FloatLiteral:
+            return Token.mkFloatLiteral(Float.intBitsToFloat(value), source, start(i), length(i));
+        case CharLiteral: return Token.mkCharLiteral((char) value);
+        case DoubleLiteral: return wide.get(value);
+        default: return Token.fixed(t);
+        }
+    }
+
+    public Cursor cursor( ) { return new Cursor(0); }
+
+    public Cursor cursor(int at) { return new Cursor(at); }
+
+    public class Cursor implements TokenSource {
+
+        private int next; // index of the token next() returns
+
+        private Cursor(int at) { next = at; }
+
+        public Token next( ) {
+            if (next == size && error != null) {
+                System.err.println(error);
+                System.exit(1);
+            }
+            if (next < size) // else stay on the end of file token
+                next++;
+            return token(next - 1);
+        }
+
+        /* index of the token the last call to next() returned */
+        public int position( ) { return next - 1; }
+
+        public int get_lineno( ) { return line(Math.max(next - 1, 0)); }
+
+        public int get_col( ) { return col(Math.max(next - 1, 0)); }
+    }
+}
@@ -10,6 +10,32 @@ public class TypeMap extends HashMap<VariableRef, Object> {
 // TypeMap is implemented as a Java HashMap.  
 // Plus a 'display' method to facilitate experimentation.
 
+// A TypeMap may sit on top of an outer one, as a function's params and
+// locals sit on the globals and function signatures: get and
+// containsKey look here first and then outward, so inner names hide
+// outer ones.  Everything else, display included, sees this layer only.
+
+   private final TypeMap outer;
+
+   public TypeMap() {
+	outer = null;
+   }
+
+   public TypeMap(TypeMap outer) {
+	this.outer = outer;
+   }
+
+   public Object get(Object key) {
+	Object t = super.get(key);
+	if (t == null && outer != null)
+		return outer.get(key);
+	return t;
+   }
+
+   public boolean containsKey(Object key) {
+	return super.containsKey(key) || (outer != null && outer.containsKey(key));
+   }
+
    public void display() {
 	String tm = "{ ";
 	Iterator it = entrySet().iterator();
@@ -2,6 +2,7 @@
 package clite;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 public class TypeTransformer {
 
@@ -9,14 +10,29 @@ public class TypeTransformer {
 	Functions t_funcs = new Functions();
     	for (int i=0; i<p.functions.size(); i++) {
 		Function func = p.functions.get(i);
-        	Function t_func = T(func, StaticTypeCheck.typing(p.globals, p.functions, func));
+        	Function t_func = T(func, StaticTypeCheck.typing(tm, func));
 		t_funcs.add(t_func);
 	}
         return new Program(p.globals, t_funcs);
     } 
 
+    /* The same as T(Program, TypeMap), with the functions transformed in
+       parallel on the ForkJoinPool and put back in their order.  tm is
+       only read, and T builds new nodes rather than changing old ones. */
+    public static Program parallelT (Program p, TypeMap tm) {
+	ArrayList<ForkJoinTask<Function>> tasks = new ArrayList<ForkJoinTask<Function>>();
+	for (Function func : p.functions)
+		tasks.add(ForkJoinTask.adapt(() -> T(func, StaticTypeCheck.typing(tm, func))));
+	Functions t_funcs = new Functions();
+	for (ForkJoinTask<Function> task : ForkJoinTask.invokeAll(tasks))
+		t_funcs.add(task.join());
+	return new Program(p.globals, t_funcs);
+    }
+
     public static Function T (Function f, TypeMap tm) {
     	Block t_body = (Block) T(f.body, tm);
+    	if (t_body == f.body)
+    		return f;
     	return new Function(f.t, f.id, f.params, f.locals, t_body); 
     }
 
@@ -25,7 +41,8 @@ public class TypeTransformer {
             return e;
 	if (e instanceof ArrayRef) {
 	    ArrayRef a = (ArrayRef) e;
-	    return new ArrayRef(a.id, T(a.index, tm));
+	    Expression index = T(a.index, tm);
+	    return index == a.index ? a : new ArrayRef(a.id, index);
 	}	
         if (e instanceof VariableRef) 
             return e;
@@ -33,155 +50,224 @@ public class TypeTransformer {
             Binary b = (Binary)e; 
             Type typ1 = StaticTypeCheck.typeOf(b.term1, tm);
             Type typ2 = StaticTypeCheck.typeOf(b.term2, tm);
-            Expression t1 = T (b.term1, tm);
-            Expression t2 = T (b.term2, tm);
+            return binary(b, typ1, typ2, T (b.term1, tm), T (b.term2, tm), tm);
+        }
+        // student exercise
+	if (e instanceof Unary) {
+	    Unary u = (Unary)e;
+	    Type typ = StaticTypeCheck.typeOf(u.term, tm);
+	    return unary(u, typ, T (u.term, tm), tm);
+	}
+	if (e instanceof CallExpression) {
+		CallExpression c = (CallExpression) e;
+		Signature sig = signature(c.name, tm);
+		Expressions t_args = null;
+		for (int i=0; i<c.args.size(); i++) {
+			Type current_arg_type = StaticTypeCheck.typeOf(c.args.get(i), tm);
+			t_args = copy(c.args, t_args, i, argument(sig.param(i), current_arg_type, T(c.args.get(i), tm)));
+		} 
+		return t_args == null ? c : new CallExpression(c.name, t_args);
+
+	}
+	throw new IllegalArgumentException("should never reach here");
+    }
+
+    // The pieces of T below build one typed node from its operands'
+    // types and its already transformed children, for T and for
+    // CheckingTransformer alike.  A node none of whose children has
+    // changed is returned as it is, shared with the input tree, so only
+    // the paths down to a typed operator or a coercion are built anew.
+
+    static Expression binary (Binary b, Type typ1, Type typ2,
+                              Expression t1, Expression t2, TypeMap tm) {
+            Operator op;
             if (typ1 == Type.INT) {
             	if (typ2 == Type.FLOAT)
-            		t1 = new Unary (new Operator(Operator.I2F), t1);
+            		t1 = convert (Operator.I2F, t1, Type.FLOAT);
             	else if (typ2 == Type.DOUBLE)
-            		t1 = new Unary (new Operator(Operator.I2D), t1);
-            	return new Binary(b.op.intMap(b.op.val), t1,t2);
+            		t1 = convert (Operator.I2D, t1, Type.DOUBLE);
+            	op = b.op.intMap();
             } else if (typ1 == Type.FLOAT) { 
             	if (typ2 == Type.INT)	
-            		t2 = new Unary (new Operator(Operator.I2F), t2);
+            		t2 = convert (Operator.I2F, t2, Type.FLOAT);
             	else if (typ2 == Type.DOUBLE)	
-            		t2 = new Unary (new Operator(Operator.D2F), t2);
-            	return new Binary(b.op.floatMap(b.op.val), t1,t2);
+            		t2 = convert (Operator.D2F, t2, Type.FLOAT);
+            	op = b.op.floatMap();
             } else if (typ1 == Type.DOUBLE) { 
             	if (typ2 == Type.INT)	
-            		t2 = new Unary (new Operator(Operator.I2D), t2);
+            		t2 = convert (Operator.I2D, t2, Type.DOUBLE);
             	else if (typ2 == Type.FLOAT)
-            		t2 = new Unary (new Operator(Operator.F2D), t2);
-            	return new Binary(b.op.doubleMap(b.op.val), t1,t2);
+            		t2 = convert (Operator.F2D, t2, Type.DOUBLE);
+            	op = b.op.doubleMap();
     	    } else if (typ1 == Type.CHAR) 
-                return new Binary(b.op.charMap(b.op.val), t1,t2);
+                op = b.op.charMap();
             else if (typ1 == Type.BOOL) 
-                return new Binary(b.op.boolMap(b.op.val), t1,t2);
-            throw new IllegalArgumentException("should never reach here");
-        }
-        // student exercise
-	if (e instanceof Unary) {
-	    Unary u = (Unary)e;
-	    Type typ = StaticTypeCheck.typeOf(u.term, tm);
-	    Expression t = T (u.term, tm);
+                op = b.op.boolMap();
+            else
+                throw new IllegalArgumentException("should never reach here");
+            Binary out = new Binary(op, t1, t2);
+            out.type = StaticTypeCheck.typeOf(b, tm);
+            return out;
+    }
+
+    static Expression unary (Unary u, Type typ, Expression t, TypeMap tm) {
+	    Operator op;
 	    if (typ == Type.INT)
-	    	return new Unary(u.op.intMap(u.op.val), t);
+	    	op = u.op.intMap();
 	    else if (typ == Type.FLOAT)
-	    	return new Unary(u.op.floatMap(u.op.val), t);
+	    	op = u.op.floatMap();
 	    else if (typ == Type.DOUBLE)
-			return new Unary(u.op.doubleMap(u.op.val), t);
+	    	op = u.op.doubleMap();
 	    else if (typ == Type.CHAR)
-	    	return new Unary(u.op.charMap(u.op.val), t);
+	    	op = u.op.charMap();
 	    else if (typ == Type.BOOL)
-	    	return new Unary(u.op.boolMap(u.op.val), t);
-	    throw new IllegalArgumentException("should never reach here");
-	}
-	if (e instanceof CallExpression) {
-		CallExpression c = (CallExpression) e;
-		//Looking for typemap associated with call's name
-		Object o = tm.get(new Variable(c.name));
-		FunctionMap fm = (FunctionMap) o; 
-		FunctionTypeMap called_params = (FunctionTypeMap) fm.getParams();	
-
-		ArrayList<Type> param_types = called_params.typeArray(); 
+	    	op = u.op.boolMap();
+	    else
+	    	throw new IllegalArgumentException("should never reach here");
+	    return convert(op, t, StaticTypeCheck.typeOf(u, tm));
+    }
 
-		for (int i=0; i<c.args.size(); i++) {
-			Type current_arg_type = StaticTypeCheck.typeOf(c.args.get(i), tm);
-			if (param_types.get(i).equals(Type.FLOAT)) {
-				if (current_arg_type.equals(Type.INT))
-					c.args.set(i, new Unary(new Operator(Operator.I2F), T(c.args.get(i), tm)));	
-				else
-					c.args.set(i, T(c.args.get(i), tm));
-			}
-			else {
-				c.args.set(i, T(c.args.get(i), tm));
-			}
-		} 
-		return new CallExpression(c.name, c.args);
+    // the Signature of the function called name
+    static Signature signature (String name, TypeMap tm) {
+	FunctionMap fm = (FunctionMap) tm.get(Variable.of(name));
+	return fm.getSignature();
+    }
 
-	}
-	throw new IllegalArgumentException("should never reach here");
+    // an argument of type typ, made float if its parameter is
+    static Expression argument (Type param, Type typ, Expression t) {
+	if (param.equals(Type.FLOAT) && typ.equals(Type.INT))
+		return convert(Operator.I2F, t, Type.FLOAT);
+	return t;
     }
 
-    public static Statement T (Statement s, TypeMap tm) {
-        if (s instanceof Skip) return s;
-        if (s instanceof Assignment) {
-            Assignment a = (Assignment)s;
-	    VariableRef target;
-	    if (a.target instanceof ArrayRef) {
- 	           target = (ArrayRef) T(a.target, tm);
-	    }
-	    else {
-	    	   target = (Variable) a.target;
-	    }
-            Expression src = T (a.source, tm);
-            Type ttype = (Type)tm.get(target);
+    static Statement assignment (Assignment a, VariableRef target,
+                                 Expression src, TypeMap tm) {
+            // an array's type is its name's, as V finds it
+            Type ttype = (Type)tm.get(target instanceof ArrayRef ? Variable.of(target.id) : target);
             Type srctype = StaticTypeCheck.typeOf(a.source, tm);
             if (ttype == Type.FLOAT) {
                 if (srctype == Type.INT) {
-                    src = new Unary(new Operator(Operator.I2F), src);
+                    src = convert(Operator.I2F, src, Type.FLOAT);
                     srctype = Type.FLOAT;
                 }
             }
             else if (ttype == Type.INT) {
                 if (srctype == Type.CHAR) {
-                    src = new Unary(new Operator(Operator.C2I), src);
+                    src = convert(Operator.C2I, src, Type.INT);
                     srctype = Type.INT;
                 }
             }
             StaticTypeCheck.check( ttype == srctype,
                       "bug in assignment to " + target);
-            return new Assignment(a.target, src);
+            if (target == a.target && src == a.source)
+                return a;
+            return new Assignment(target, src);
+    }
+
+    static Statement conditional (Conditional c, Expression test,
+                                  Statement tbr, Statement ebr) {
+	if (test == c.test && tbr == c.thenbranch && ebr == c.elsebranch)
+		return c;
+	return new Conditional(test, tbr, ebr);
+    }
+
+    static Statement loop (Loop l, Expression test, Statement body) {
+	if (test == l.test && body == l.body)
+		return l;
+	return new Loop(test, body);
+    }
+
+    static Statement ret (Return r, Expression result) {
+	return result == r.result ? r : new Return(r.target, result);
+    }
+
+    static Statement print (Print p, Expression to_print) {
+	return to_print == p.to_print ? p : new Print(to_print);
+    }
+
+    // The copy of b as far as its i-th member, which becomes t, made
+    // only once some member has changed: out is the copy so far, or
+    // null while every member has been the same.
+    static Block copy (Block b, Block out, int i, Statement t) {
+	if (out == null) {
+		if (t == b.members.get(i))
+			return null;
+		out = new Block();
+		out.members.addAll(b.members.subList(0, i));
+	}
+	out.members.add(t);
+	return out;
+    }
+
+    // the same for a list of arguments
+    static Expressions copy (Expressions args, Expressions out, int i, Expression t) {
+	if (out == null) {
+		if (t == args.get(i))
+			return null;
+		out = new Expressions();
+		out.addAll(args.subList(0, i));
+	}
+	out.add(t);
+	return out;
+    }
+
+    // a Unary already carrying its type, as the checker's nodes do
+    private static Unary convert (Operator op, Expression e, Type t) {
+        Unary u = new Unary(op, e);
+        u.type = t;
+        return u;
+    }
+
+    public static Statement T (Statement s, TypeMap tm) {
+        if (s instanceof Skip) return s;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+	    VariableRef target;
+	    if (a.target instanceof ArrayRef) {
+ 	           target = (ArrayRef) T(a.target, tm);
+	    }
+	    else {
+	    	   target = (Variable) a.target;
+	    }
+            return assignment(a, target, T (a.source, tm), tm);
         } 
         if (s instanceof Conditional) {
             Conditional c = (Conditional)s;
             Expression test = T (c.test, tm);
             Statement tbr = T (c.thenbranch, tm);
             Statement ebr = T (c.elsebranch, tm);
-            return new Conditional(test,  tbr, ebr);
+            return conditional(c, test, tbr, ebr);
         }
         if (s instanceof Loop) {
             Loop l = (Loop)s;
             Expression test = T (l.test, tm);
             Statement body = T (l.body, tm);
-            return new Loop(test, body);
+            return loop(l, test, body);
         }
         if (s instanceof Block) {
             Block b = (Block)s;
-            Block out = new Block();
-            for (Statement stmt : b.members)
-                out.members.add(T(stmt, tm));
-            return out;
+            Block out = null;
+            for (int i=0; i<b.members.size(); i++)
+                out = copy(b, out, i, T(b.members.get(i), tm));
+            return out == null ? b : out;
         }
 	if (s instanceof Return) {
 		Return r = (Return) s;	
-		return new Return(r.target, T(r.result, tm));
+		return ret(r, T(r.result, tm));
 	}
 	if (s instanceof CallStatement) {
 		CallStatement c = (CallStatement) s;
-		//Looking for typemap associated with call's name
-		Object o = tm.get(new Variable(c.name));
-		FunctionMap fm = (FunctionMap) o; 
-		FunctionTypeMap called_params = (FunctionTypeMap) fm.getParams();	
-		ArrayList<Type> param_types = called_params.typeArray(); 
-
+		Signature sig = signature(c.name, tm);
+		Expressions t_args = null;
 		for (int i=0; i<c.args.size(); i++) {
 			Type current_arg_type = StaticTypeCheck.typeOf(c.args.get(i), tm);
-			if (param_types.get(i).equals(Type.FLOAT)) {
-				if (current_arg_type.equals(Type.INT))
-					c.args.set(i, new Unary(new Operator(Operator.I2F), T(c.args.get(i), tm)));	
-				else
-					c.args.set(i, T(c.args.get(i), tm));
-			}
-			else {
-				c.args.set(i, T(c.args.get(i), tm));
-			}
+			t_args = copy(c.args, t_args, i, argument(sig.param(i), current_arg_type, T(c.args.get(i), tm)));
 		} 
-		return new CallStatement(c.name, c.args);
+		return t_args == null ? c : new CallStatement(c.name, t_args);
 	}
 	if (s instanceof Print) {
 	    Print p = (Print) s;
-	    return new Print(T(p.to_print, tm));
+	    return print(p, T(p.to_print, tm));
 	}
         throw new IllegalArgumentException("should never reach here");
     }